@@ -84,6 +84,10 @@ public class AutoGrader {
 	}	
     }
 
+    boolean hasArgument(String key) {
+	return testArgs.containsKey(key);
+    }
+
     String getStringArgument(String key) {
 	String value = (String) testArgs.get(key);
 	Lib.assertTrue(value != null,
@@ -0,0 +1,231 @@
+package nachos.ag;
+
+import nachos.machine.*;
+import nachos.security.*;
+import nachos.threads.*;
+
+import java.lang.management.ManagementFactory;
+import java.security.PrivilegedAction;
+
+/**
+ * An autograder that measures the cost of a context switch instead of running
+ * the kernel's tests. Use it with <tt>-- nachos.ag.SwitchBenchmark</tt>, and
+ * compare TCB backends and schedulers by changing the configuration file.
+ *
+ * <p>
+ * Three workloads are run, each once to warm up and then once measured:
+ * <ul>
+ * <li><b>pingpong</b>: two threads call <tt>KThread.yield()</tt> in turn.
+ * <li><b>fanout</b>: <i>threads</i> threads are forked, and all of them yield
+ * until the iterations are used up.
+ * <li><b>semaphore</b>: two threads hand control back and forth with
+ * <tt>Semaphore.P()</tt> and <tt>V()</tt>, like <tt>Semaphore.selfTest()</tt>.
+ * </ul>
+ *
+ * <p>
+ * Every call to <tt>runningThread()</tt> counts as a switch. For each
+ * workload, the wall-clock time and the number of bytes allocated by all Java
+ * threads are divided by the number of switches. Allocation is only reported
+ * if the JVM can measure it per thread.
+ *
+ * <p>
+ * The test arguments (<tt>-#</tt>) <tt>iterations</tt> (default 100000) and
+ * <tt>threads</tt> (default 16) set the size of the workloads.
+ */
+public class SwitchBenchmark extends AutoGrader {
+    void init() {
+	iterations = getIntegerArgument("iterations", 100000);
+	numThreads = getIntegerArgument("threads", 16);
+
+	Lib.assertTrue(iterations > 0 && numThreads > 0);
+
+	privilege.doPrivileged(new Runnable() {
+		public void run() { findAllocationCounter(); }
+	    });
+    }
+
+    void run() {
+	System.out.println("benchmark\tswitches\tns/switch\tbytes/switch");
+
+	for (int i=0; i<numWorkloads; i++) {
+	    runWorkload(i, Math.max(1, iterations/10));
+	    measure(i);
+	}
+
+	kernel.terminate();
+    }
+
+    public void runningThread(KThread thread) {
+	super.runningThread(thread);
+	numSwitches++;
+    }
+
+    public void finishingCurrentThread() {
+	// the JVM forgets a thread's allocations once it exits
+	if (threadBean != null)
+	    finishedThreadBytes += currentThreadBytes();
+
+	super.finishingCurrentThread();
+    }
+
+    private void measure(int workload) {
+	long bytesBefore = allocatedBytes();
+	long switchesBefore = numSwitches;
+	long startTime = System.nanoTime();
+
+	runWorkload(workload, iterations);
+
+	long elapsed = System.nanoTime() - startTime;
+	long switches = Math.max(1, numSwitches - switchesBefore);
+	long bytes = allocatedBytes() - bytesBefore;
+
+	System.out.println(workloadNames[workload] + "\t" + switches + "\t\t"
+			   + (elapsed / switches) + "\t\t"
+			   + (threadBean != null ? "" + (bytes / switches)
+			      : "n/a"));
+    }
+
+    private void runWorkload(int workload, int count) {
+	switch (workload) {
+	case pingPong:
+	    runYielders(1, count);
+	    break;
+	case fanOut:
+	    runYielders(numThreads, count/numThreads);
+	    break;
+	case semaphore:
+	    runSemaphore(count);
+	    break;
+	default:
+	    Lib.assertNotReached();
+	}
+    }
+
+    /**
+     * Fork <i>numYielders</i> threads that each yield <i>count</i> times,
+     * yield the same number of times in the current thread, and wait for
+     * the forked threads to finish.
+     */
+    private void runYielders(int numYielders, final int count) {
+	final Semaphore finished = new Semaphore(0);
+
+	for (int i=0; i<numYielders; i++) {
+	    KThread yielder = new KThread(new Runnable() {
+		    public void run() {
+			for (int j=0; j<count; j++)
+			    KThread.yield();
+			finished.V();
+		    }
+		});
+	    yielder.setName("yielder " + i).fork();
+	}
+
+	for (int i=0; i<count; i++)
+	    KThread.yield();
+
+	for (int i=0; i<numYielders; i++)
+	    finished.P();
+    }
+
+    /**
+     * Hand control to a forked thread and back <i>count</i> times using a
+     * pair of semaphores.
+     */
+    private void runSemaphore(final int count) {
+	final Semaphore ping = new Semaphore(0);
+	final Semaphore pong = new Semaphore(0);
+
+	KThread ponger = new KThread(new Runnable() {
+		public void run() {
+		    for (int i=0; i<count; i++) {
+			ping.P();
+			pong.V();
+		    }
+		}
+	    });
+	ponger.setName("pong").fork();
+
+	for (int i=0; i<count; i++) {
+	    ping.V();
+	    pong.P();
+	}
+    }
+
+    private int getIntegerArgument(String key, int defaultValue) {
+	if (!hasArgument(key))
+	    return defaultValue;
+
+	return getIntegerArgument(key);
+    }
+
+    /**
+     * Find the JVM's per-thread allocation counter, if it has one. Requires
+     * privilege.
+     */
+    private void findAllocationCounter() {
+	try {
+	    com.sun.management.ThreadMXBean bean =
+		(com.sun.management.ThreadMXBean)
+		ManagementFactory.getThreadMXBean();
+
+	    if (bean.isThreadAllocatedMemorySupported()) {
+		bean.setThreadAllocatedMemoryEnabled(true);
+		threadBean = bean;
+	    }
+	}
+	catch (Throwable e) {
+	    threadBean = null;
+	}
+    }
+
+    /**
+     * Return the number of bytes allocated so far by all Java threads,
+     * including the Nachos threads that have finished.
+     */
+    private long allocatedBytes() {
+	if (threadBean == null)
+	    return 0;
+
+	Long bytes = (Long) privilege.doPrivileged(new PrivilegedAction<Long>() {
+		public Long run() {
+		    long[] allocated =
+			threadBean.getThreadAllocatedBytes(threadBean.getAllThreadIds());
+
+		    long total = 0;
+		    for (int i=0; i<allocated.length; i++) {
+			if (allocated[i] > 0)
+			    total += allocated[i];
+		    }
+		    return Long.valueOf(total);
+		}
+	    });
+
+	return bytes.longValue() + finishedThreadBytes;
+    }
+
+    private long currentThreadBytes() {
+	Long bytes = (Long) privilege.doPrivileged(new PrivilegedAction<Long>() {
+		public Long run() {
+		    long id = Thread.currentThread().getId();
+		    return Long.valueOf(Math.max(0, threadBean.getThreadAllocatedBytes(id)));
+		}
+	    });
+
+	return bytes.longValue();
+    }
+
+    private int iterations, numThreads;
+
+    private long numSwitches = 0;
+    private long finishedThreadBytes = 0;
+    private com.sun.management.ThreadMXBean threadBean = null;
+
+    private static final int pingPong = 0;
+    private static final int fanOut = 1;
+    private static final int semaphore = 2;
+    private static final int numWorkloads = 3;
+
+    private static final String[] workloadNames = {
+	"pingpong", "fanout", "semaphore"
+    };
+}
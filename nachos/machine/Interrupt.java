@@ -4,9 +4,7 @@ package nachos.machine;
 
 import nachos.security.*;
 
-import java.util.TreeSet;
-import java.util.Iterator;
-import java.util.SortedSet;
+import java.util.Arrays;
 
 /**
  * The <tt>Interrupt</tt> class emulates low-level interrupt hardware. The
@@ -53,7 +51,11 @@ public final class Interrupt {
 		privilege.interrupt = new InterruptPrivilege(); //ͷƮ  
 		
 		enabled = false;
-		pending = new TreeSet<PendingInterrupt>();
+		pending = new PendingInterrupt[16];
+		numPending = 0;
+		nextDueTime = Long.MAX_VALUE;
+
+		debugging = Lib.test(dbgInt);
     }
 
     /**
@@ -122,17 +124,48 @@ public final class Interrupt {
     	return !enabled; //ͷƮ Ұ ¸ true ȯ
     }
 
+    /**
+     * Advance the simulated time to just before the next pending interrupt,
+     * as if the idle thread had yielded until then. The ticks skipped are
+     * counted as kernel ticks, and the interrupt becomes due the next time
+     * interrupts are enabled, exactly as it would without skipping.
+     *
+     * <p>
+     * Interrupts must be disabled.
+     */
+    public void idle() {
+		Lib.assertTrue(disabled());
+
+		if (numPending == 0)
+		    return;
+
+		Stats stats = privilege.stats;
+
+		// each yield of the idle thread advances time by KernelTick
+		long numYields = (nextDueTime - stats.totalTicks - 1) / Stats.KernelTick;
+		if (numYields <= 0)
+		    return;
+
+		long ticks = numYields * Stats.KernelTick;
+
+		Lib.debug(dbgInt, "Idling from time = " + stats.totalTicks +
+			  " to time = " + (stats.totalTicks + ticks));
+		
+		stats.kernelTicks += ticks;
+		stats.totalTicks += ticks;
+    }
+
     private void schedule(long when, String type, Runnable handler) { // ͷƮ ߰ϴ ޼ҵ
 		Lib.assertTrue(when>0);
 		
 		long time = privilege.stats.totalTicks + when;
-		PendingInterrupt toOccur = new PendingInterrupt(time, type, handler);
+		PendingInterrupt toOccur = allocatePending(time, type, handler);
 	
 		Lib.debug(dbgInt,
 			  "Scheduling the " + type +
 			  " interrupt handler at time = " + time);
 	
-		pending.add(toOccur);
+		addPending(toOccur);
     }
 
     private void tick(boolean inKernelMode) {
@@ -149,8 +182,13 @@ public final class Interrupt {
 		  // System.out.println("userTicks: "+stats.userTicks +", "+ stats.totalTicks);
 		}
 	
-		if (Lib.test(dbgInt))
+		if (debugging)
 		    System.out.println("== Tick " + stats.totalTicks + " ==");
+		else if (stats.totalTicks < nextDueTime) {
+		    // nothing is due, so there is nothing to check
+		    enabled = true;
+		    return;
+		}
 	
 		enabled = false;
 		checkIfDue();
@@ -158,6 +196,30 @@ public final class Interrupt {
 		//System.out.println("ٽ ͷƮ ߻?");
     }
 
+    private void tick(int numInstructions) { //   ŭ   ð մ
+		if (debugging) {
+		    // print every tick, just as the processor would one at a time
+		    for (int i=0; i<numInstructions; i++)
+			tick(false);
+		    return;
+		}
+
+		Stats stats = privilege.stats;
+		long ticks = (long) numInstructions * Stats.UserTick;
+
+		stats.userTicks += ticks;
+		stats.totalTicks += ticks;
+
+		if (stats.totalTicks < nextDueTime) {
+		    enabled = true;
+		    return;
+		}
+
+		enabled = false;
+		checkIfDue();
+		enabled = true;
+    }
+
     private void checkIfDue() {
     	
 		long time = privilege.stats.totalTicks;
@@ -167,27 +229,30 @@ public final class Interrupt {
 		if (Lib.test(dbgInt))
 		    print();
 	
-		if (pending.isEmpty()) // ͷƮ  ׳ 
+		if (numPending == 0) // ͷƮ  ׳ 
 		    return;
 	
-		if (((PendingInterrupt) pending.first()).time > time) // غ   ͷƮ Ƶ ׳ 
+		if (pending[0].time > time) // غ   ͷƮ Ƶ ׳ 
 		    return;
 	
 		Lib.debug(dbgInt, "Invoking interrupt handlers at time = " + time);
 		
-		while (!pending.isEmpty() &&
-		       ((PendingInterrupt) pending.first()).time <= time) {
-		    PendingInterrupt next = (PendingInterrupt) pending.first(); // ͷƮ ϰ ؾϴ ð  ͷƮ ִٸ Ʈ  ù° ͷƮ 
-		    pending.remove(next); // Ʈ 
+		while (numPending > 0 && pending[0].time <= time) {
+		    PendingInterrupt next = removeFirstPending(); // ͷƮ ϰ ؾϴ ð  ͷƮ ִٸ   ù° ͷƮ 
 		    
 		    Lib.assertTrue(next.time <= time);
+
+		    // the handler may schedule another interrupt, so recycle first
+		    String type = next.type;
+		    Runnable handler = next.handler;
+		    freePending(next);
 	
 		    if (privilege.processor != null)
 		    	privilege.processor.flushPipe();
 	
-		    Lib.debug(dbgInt, "  " + next.type);
+		    Lib.debug(dbgInt, "  " + type);
 				
-		    next.handler.run(); //  ϸ ڵ鷯  - Ÿ̸ Ŭ Ÿ̸ ͷƮ autograder ڵ鷯뤻
+		    handler.run(); //  ϸ ڵ鷯  - Ÿ̸ Ŭ Ÿ̸ ͷƮ autograder ڵ鷯뤻
 		    //System.out.println("Interrupt Ŭ  ͷƮ ڵ鷯 ");
 		}
 	
@@ -199,8 +264,11 @@ public final class Interrupt {
 				   + ", interrupts " + (enabled ? "on" : "off"));
 		System.out.println("Pending interrupts:");
 	
-		for (Iterator i=pending.iterator(); i.hasNext(); ) {
-		    PendingInterrupt toOccur = (PendingInterrupt) i.next();
+		PendingInterrupt[] sorted = Arrays.copyOf(pending, numPending);
+		Arrays.sort(sorted);
+		
+		for (int i=0; i<sorted.length; i++) {
+		    PendingInterrupt toOccur = sorted[i];
 		    System.out.println("  " + toOccur.type +
 				       ", scheduled at " + toOccur.time);
 		}
@@ -208,13 +276,101 @@ public final class Interrupt {
 		System.out.println("  (end of list)");
     }
 
+    /**
+     * Return a pending interrupt object for the specified handler, reusing
+     * one from the free list if possible.
+     */
+    private PendingInterrupt allocatePending(long time, String type,
+					     Runnable handler) {
+		PendingInterrupt toOccur = freeList;
+		
+		if (toOccur != null)
+		    freeList = toOccur.nextFree;
+		else
+		    toOccur = new PendingInterrupt();
+
+		toOccur.time = time;
+		toOccur.type = type;
+		toOccur.handler = handler;
+		toOccur.id = numPendingInterruptsScheduled++;
+		toOccur.nextFree = null;
+
+		return toOccur;
+    }
+
+    /**
+     * Return a pending interrupt object that has been removed from the heap
+     * to the free list.
+     */
+    private void freePending(PendingInterrupt toOccur) {
+		toOccur.type = null;
+		toOccur.handler = null;
+		toOccur.nextFree = freeList;
+		freeList = toOccur;
+    }
+
+    /**
+     * Add a pending interrupt to the heap, sifting it up to its place.
+     */
+    private void addPending(PendingInterrupt toOccur) {
+		if (numPending == pending.length)
+		    pending = Arrays.copyOf(pending, numPending*2);
+
+		int i = numPending++;
+		while (i > 0) {
+		    int parent = (i-1) / 2;
+		    if (!toOccur.before(pending[parent]))
+			break;
+		    
+		    pending[i] = pending[parent];
+		    i = parent;
+		}
+		pending[i] = toOccur;
+		nextDueTime = pending[0].time;
+    }
+
+    /**
+     * Remove and return the earliest pending interrupt, sifting the last
+     * element of the heap down into the vacated root.
+     */
+    private PendingInterrupt removeFirstPending() {
+		PendingInterrupt first = pending[0];
+		PendingInterrupt last = pending[--numPending];
+		pending[numPending] = null;
+
+		if (numPending > 0) {
+		    int i = 0;
+		    while (true) {
+			int child = 2*i + 1;
+			if (child >= numPending)
+			    break;
+			if (child+1 < numPending &&
+			    pending[child+1].before(pending[child]))
+			    child++;
+			if (!pending[child].before(last))
+			    break;
+
+			pending[i] = pending[child];
+			i = child;
+		    }
+		    pending[i] = last;
+		}
+
+		nextDueTime = (numPending > 0 ? pending[0].time : Long.MAX_VALUE);
+
+		return first;
+    }
+
     private class PendingInterrupt implements Comparable { 
-    	PendingInterrupt(long time, String type, Runnable handler) { // ͷƮ ü  ޼ҵ
-		    this.time = time;
-		    this.type = type;
-		    this.handler = handler;
-		    this.id = numPendingInterruptsCreated++;
-    	}
+		/**
+		 * Test whether this interrupt should be handled before
+		 * <i>toOccur</i>: earlier times first, then in the order they
+		 * were scheduled.
+		 */
+		boolean before(PendingInterrupt toOccur) {
+		    return (time < toOccur.time ||
+			    (time == toOccur.time && id < toOccur.id));
+		}
 
 		public int compareTo(Object o) {
 		    PendingInterrupt toOccur = (PendingInterrupt) o;
@@ -237,14 +393,20 @@ public final class Interrupt {
 		Runnable handler;
 	
 		private long id;
+		private PendingInterrupt nextFree;
     }
     
-    private long numPendingInterruptsCreated = 0;
+    private long numPendingInterruptsScheduled = 0;
 
     private Privilege privilege;
 
     private boolean enabled;
-    private TreeSet<PendingInterrupt> pending; // ͷƮ Ʈ(Ʈ): ߻, ü  X
+    private PendingInterrupt[] pending; // ͷƮ : (time, id)  ּ , ü  X
+    private int numPending;
+    private long nextDueTime; //  ó  ͷƮ ð,  Long.MAX_VALUE
+    private PendingInterrupt freeList; //  ͷƮ ü
+
+    private boolean debugging; //  'i'  ÷װ  ־
 
     private static final char dbgInt = 'i';
 
@@ -258,5 +420,16 @@ public final class Interrupt {
 	public void tick(boolean inKernelMode) {
 	    Interrupt.this.tick(inKernelMode);
 	}
+
+	public void tick(int numInstructions) {
+	    Interrupt.this.tick(numInstructions);
+	}
+
+	public long ticksUntilDue() {
+	    if (numPending == 0)
+		return Long.MAX_VALUE;
+	    
+	    return nextDueTime - privilege.stats.totalTicks;
+	}
     }
 }
@@ -136,6 +136,73 @@ public class OpenFile {
 	return -1;
     }
 
+    /**
+     * Read this file starting at the current file pointer into several spans
+     * of one buffer, in order, and return the total number of bytes read.
+     * Stops after the first span that is not filled completely. Advances the
+     * file pointer by the number of bytes read. This lets the kernel read
+     * straight into the pages of main memory that back a user buffer.
+     *
+     * <p>
+     * This implementation calls <tt>read(buf, offset, length)</tt> once for
+     * each span.
+     *
+     * @param	buf		the buffer to store the bytes in.
+     * @param	offsets		the offset in the buffer of each span.
+     * @param	lengths		the length of each span.
+     * @param	numSpans	the number of spans to fill.
+     * @return	the total number of bytes read, or -1 if a fatal error
+     *		occurred before any bytes were read.
+     */
+    public int read(byte[] buf, int[] offsets, int[] lengths, int numSpans) {
+	int total = 0;
+
+	for (int i=0; i<numSpans; i++) {
+	    int amount = read(buf, offsets[i], lengths[i]);
+	    if (amount == -1)
+		return (total > 0 ? total : -1);
+
+	    total += amount;
+	    if (amount < lengths[i])
+		break;
+	}
+
+	return total;
+    }
+
+    /**
+     * Write several spans of one buffer to this file, in order, starting at
+     * the current file pointer, and return the total number of bytes written.
+     * Stops after the first span that is not written completely. Advances the
+     * file pointer by the number of bytes written.
+     *
+     * <p>
+     * This implementation calls <tt>write(buf, offset, length)</tt> once for
+     * each span.
+     *
+     * @param	buf		the buffer to get the bytes from.
+     * @param	offsets		the offset in the buffer of each span.
+     * @param	lengths		the length of each span.
+     * @param	numSpans	the number of spans to write.
+     * @return	the total number of bytes written, or -1 if a fatal error
+     *		occurred before any bytes were written.
+     */
+    public int write(byte[] buf, int[] offsets, int[] lengths, int numSpans) {
+	int total = 0;
+
+	for (int i=0; i<numSpans; i++) {
+	    int amount = write(buf, offsets[i], lengths[i]);
+	    if (amount == -1)
+		return (total > 0 ? total : -1);
+
+	    total += amount;
+	    if (amount < lengths[i])
+		break;
+	}
+
+	return total;
+    }
+
     private FileSystem fileSystem;
     private String name;
 }
@@ -4,6 +4,8 @@ package nachos.machine;
 
 import nachos.security.*;
 
+import java.util.Arrays;
+
 /**
  * The <tt>Processor</tt> class simulates a MIPS processor that supports a
  * subset of the R3000 instruction set. Specifically, the processor lacks all
@@ -39,6 +41,14 @@ public final class Processor {
 
 	usingTLB =
 	    (clsVMKernel != null && clsVMKernel.isAssignableFrom(clsKernel));
+
+	String engine = Config.getString("Processor.engine", "interpreter");
+	Lib.assertTrue(engine.equals("interpreter") || engine.equals("block"),
+		       "bad value for Processor.engine: " + engine);
+	usingBlocks = engine.equals("block");
+
+	debugging = (Lib.test(dbgProcessor) || Lib.test(dbgDisassemble) ||
+		     Lib.test(dbgFullDisassemble));
 	
 	this.numPhysPages = numPhysPages;
 
@@ -47,10 +57,35 @@ public final class Processor {
 
 	mainMemory = new byte[pageSize * numPhysPages];
 
+	translationCacheVPN = new int[translationCacheSize];
+	translationCacheBase = new int[translationCacheSize];
+	translationCacheWritable = new boolean[translationCacheSize];
+	translationCacheDirty = new boolean[translationCacheSize];
+	translationCacheEntry = new TranslationEntry[translationCacheSize];
+	flushTranslationCache();
+
+	decodeCache = new DecodedInstruction[numPhysPages][];
+	blockCache = new BasicBlock[numPhysPages][];
+	cacheGeneration = new int[numPhysPages];
+
 	if (usingTLB) {
+	    tlbSize = Config.getInteger("Processor.tlbSize", 4);
+	    Lib.assertTrue(tlbSize > 0, "Processor.tlbSize must be positive");
+	    
 	    translations = new TranslationEntry[tlbSize];
 	    for (int i=0; i<tlbSize; i++)
 		translations[i] = new TranslationEntry();
+
+	    int indexSize = 1;
+	    while (indexSize < tlbSize*2)
+		indexSize *= 2;
+
+	    tlbIndexVPN = new int[indexSize];
+	    tlbIndexEntry = new int[indexSize];
+	    rebuildTLBIndex();
+
+	    tlbHits = new long[tlbSize];
+	    privilege.stats.tlbHits = tlbHits;
 	}
 	else {
 	    translations = null;
@@ -92,6 +127,10 @@ public final class Processor {
 	Machine.autoGrader().runProcessor(privilege);
 
 	Instruction inst = new Instruction();
+
+	// the disassembler output is produced one fetch at a time
+	if (usingBlocks && !debugging)
+	    runBlocks(inst);
 	
 	while (true) {
 	    try {
@@ -105,6 +144,135 @@ public final class Processor {
 	}
     }
 
+    /**
+     * Execute instructions a basic block at a time. Never returns.
+     *
+     * <p>
+     * Only the first instruction of a block is fetched through the MMU; the
+     * rest are taken straight from the block. This is safe because a block
+     * lies within one physical page, and the kernel can only change address
+     * translations (or the PC) after an exception or an interrupt, both of
+     * which end the block. A store into the block's own page also ends it,
+     * so that the next instruction is fetched again. In TLB mode, each
+     * instruction taken from the block still counts as a hit on the TLB
+     * entry its block was fetched through, so the TLB statistics match the
+     * interpreter's.
+     *
+     * <p>
+     * Simulated time is advanced for several instructions at once, but never
+     * past the next pending interrupt, and always before an exception is
+     * handled. Interrupts and exceptions therefore happen at exactly the same
+     * times as in the interpreter.
+     *
+     * @param	inst	the instruction state to execute with.
+     */
+    private void runBlocks(Instruction inst) {
+	while (true) {
+	    int vaddr = registers[regPC];
+	    BasicBlock block;
+
+	    try {
+		block = fetchBlock(vaddr);
+	    }
+	    catch (MipsException e) {
+		e.handle();
+		privilege.interrupt.tick(false);
+		continue;
+	    }
+
+	    DecodedInstruction[] instructions = block.instructions;
+	    int tlbEntry = (usingTLB ? lastTLBEntry : -1);
+	    int fetched = 0;
+
+	    // instructions executed but not yet ticked, and how many can be
+	    // before an interrupt is due
+	    int untickedInstructions = 0;
+	    int instructionsUntilDue = instructionsUntilDue();
+
+	    for (int i=0; i<instructions.length; i++, vaddr+=4) {
+		// a taken branch leaves the block after its delay slot
+		if (registers[regPC] != vaddr)
+		    break;
+
+		fetched++;
+		try {
+		    inst.run(instructions[i]);
+		}
+		catch (MipsException e) {
+		    // the handler may never return, as when a process exits
+		    countBlockFetches(tlbEntry, fetched);
+		    fetched = 0;
+
+		    // the handler must see the time this instruction ran at
+		    if (untickedInstructions > 0) {
+			privilege.interrupt.tick(untickedInstructions);
+			untickedInstructions = 0;
+		    }
+		    
+		    e.handle();
+		    privilege.interrupt.tick(false);
+		    break;
+		}
+
+		untickedInstructions++;
+
+		// a store into this page may have changed the rest of the block
+		if (currentBlockPpn == -1)
+		    break;
+
+		if (untickedInstructions == instructionsUntilDue) {
+		    // another thread may run during the tick, so compare against
+		    // a count taken here rather than a flag it could clear
+		    int pipeFlushes = numPipeFlushes;
+		    
+		    privilege.interrupt.tick(untickedInstructions);
+		    untickedInstructions = 0;
+
+		    if (numPipeFlushes != pipeFlushes)
+			break;
+
+		    instructionsUntilDue = instructionsUntilDue();
+		}
+	    }
+
+	    countBlockFetches(tlbEntry, fetched);
+
+	    if (untickedInstructions > 0)
+		privilege.interrupt.tick(untickedInstructions);
+	}
+    }
+
+    /**
+     * Count a TLB hit for each instruction taken from a block after its
+     * first, which <tt>fetchBlock()</tt> already counted.
+     *
+     * @param	tlbEntry	the TLB entry the block was fetched through, or
+     *				-1 if not in TLB mode.
+     * @param	fetched		the number of instructions taken from the
+     *				block.
+     */
+    private void countBlockFetches(int tlbEntry, int fetched) {
+	if (tlbEntry != -1 && fetched > 1) {
+	    tlbHits[tlbEntry] += fetched-1;
+	    privilege.stats.numTLBHits += fetched-1;
+	}
+    }
+
+    /**
+     * Return the number of user instructions that can be executed before the
+     * next pending interrupt is due. Always at least 1.
+     *
+     * @return	the number of instructions until an interrupt is due.
+     */
+    private int instructionsUntilDue() {
+	long ticks = privilege.interrupt.ticksUntilDue();
+	
+	if (ticks >= Integer.MAX_VALUE)
+	    return Integer.MAX_VALUE;
+
+	return Math.max(1, (int) ((ticks + Stats.UserTick-1) / Stats.UserTick));
+    }
+
     /**
      * Read and return the contents of the specified CPU register.
      *
@@ -175,6 +343,7 @@ public final class Processor {
 	Lib.assertTrue(!usingTLB);
 
 	this.translations = pageTable;
+	flushTranslationCache();
     }
 
     /**
@@ -216,6 +385,58 @@ public final class Processor {
 	Lib.assertTrue(number >= 0 && number < tlbSize);
 
 	translations[number] = new TranslationEntry(entry);
+	rebuildTLBIndex();
+	flushTranslationCache();
+    }
+
+    /**
+     * Rebuild <tt>tlbIndexVPN</tt> and <tt>tlbIndexEntry</tt> from the
+     * current TLB contents. If several valid entries have the same VPN, the
+     * one with the lowest index is used.
+     */
+    private void rebuildTLBIndex() {
+	Arrays.fill(tlbIndexVPN, -1);
+
+	for (int i=0; i<tlbSize; i++) {
+	    if (!translations[i].valid)
+		continue;
+
+	    int vpn = translations[i].vpn;
+	    int slot = vpn & (tlbIndexVPN.length-1);
+	    while (tlbIndexVPN[slot] != -1 && tlbIndexVPN[slot] != vpn)
+		slot = (slot+1) & (tlbIndexVPN.length-1);
+
+	    if (tlbIndexVPN[slot] == -1) {
+		tlbIndexVPN[slot] = vpn;
+		tlbIndexEntry[slot] = i;
+	    }
+	}
+    }
+
+    /**
+     * Find the valid TLB entry for the specified virtual page, and count a
+     * hit against it.
+     *
+     * @param	vpn	the virtual page number.
+     * @return	the index of the TLB entry, or -1 if there is none.
+     */
+    private int findTLBEntry(int vpn) {
+	int slot = vpn & (tlbIndexVPN.length-1);
+	
+	while (true) {
+	    int indexVPN = tlbIndexVPN[slot];
+	    if (indexVPN == vpn) {
+		int i = tlbIndexEntry[slot];
+		tlbHits[i]++;
+		privilege.stats.numTLBHits++;
+		lastTLBEntry = i;
+		return i;
+	    }
+	    if (indexVPN == -1)
+		return -1;
+	    
+	    slot = (slot+1) & (tlbIndexVPN.length-1);
+	}
     }
 
     /**
@@ -232,12 +453,50 @@ public final class Processor {
      * Return a reference to the physical memory array. The size of this array
      * is <tt>pageSize * getNumPhysPages()</tt>.
      *
+     * <p>
+     * Since the caller may write to any page through the returned array, this
+     * discards all predecoded instructions.
+     *
      * @return	the main memory array.
      */
     public byte[] getMemory() {
+	memoryGeneration++;
+	return mainMemory;
+    }
+
+    /**
+     * Return a reference to the physical memory array, like
+     * <tt>getMemory()</tt>, but keep the predecoded instructions. The caller
+     * must either only read the array, or call <tt>invalidateMemory()</tt>
+     * for every range of it that it writes.
+     *
+     * @return	the main memory array.
+     */
+    public byte[] getMemoryWithoutInvalidating() {
 	return mainMemory;
     }
 
+    /**
+     * Discard the predecoded instructions on every page of physical memory
+     * that overlaps the specified range, because the caller has written it
+     * through the array returned by <tt>getMemoryWithoutInvalidating()</tt>.
+     *
+     * @param	paddr	the first physical address written.
+     * @param	length	the number of bytes written.
+     */
+    public void invalidateMemory(int paddr, int length) {
+	Lib.assertTrue(paddr >= 0 && length >= 0 &&
+		       paddr+length <= mainMemory.length);
+
+	if (length == 0)
+	    return;
+
+	// the caches are emptied the next time each page is used
+	int lastPage = (paddr+length-1) / pageSize;
+	for (int ppn=paddr/pageSize; ppn<=lastPage; ppn++)
+	    cacheGeneration[ppn] = memoryGeneration - 1;
+    }
+
     /**
      * Concatenate a page number and an offset into an address.
      *
@@ -322,19 +581,16 @@ public final class Processor {
 
 	    entry = translations[vpn];
 	}
-	// else, look through all TLB entries for matching vpn
+	// else, look up the matching TLB entry
 	else {
-	    for (int i=0; i<tlbSize; i++) {
-		if (translations[i].valid && translations[i].vpn == vpn) {
-		    entry = translations[i];
-		    break;
-		}
-	    }
-	    if (entry == null) {
+	    int i = findTLBEntry(vpn);
+	    if (i == -1) {
 		privilege.stats.numTLBMisses++;
 		Lib.debug(dbgProcessor, "\t\tTLB miss");
 		throw new MipsException(exceptionTLBMiss, vaddr);
 	    }
+
+	    entry = translations[i];
 	}
 
 	// check if trying to write a read-only page
@@ -362,6 +618,97 @@ public final class Processor {
 	return paddr;
     }
 
+    /**
+     * Translate a virtual address into a physical address, exactly like
+     * <tt>translate()</tt> but without any debugging output. Only used when
+     * no processor debug flags are set.
+     *
+     * @param	vaddr	the virtual address to translate.
+     * @param	size	the size of the memory reference (must be 1, 2, or 4).
+     * @param	writing	<tt>true</tt> if the memory reference is a write.
+     * @return		the physical address.
+     * @exception	MipsException	if a translation error occurred.
+     */
+    private int translateFast(int vaddr, int size, boolean writing)
+	throws MipsException {
+	if ((vaddr & (size-1)) != 0)
+	    throw new MipsException(exceptionAddressError, vaddr);
+
+	int vpn = pageFromAddress(vaddr);
+	int offset = offsetFromAddress(vaddr);
+
+	if (!usingTLB) {
+	    int i = vpn & (translationCacheSize-1);
+	    if (translationCacheVPN[i] == vpn) {
+		if (!writing)
+		    return translationCacheBase[i] + offset;
+
+		if (translationCacheWritable[i]) {
+		    if (!translationCacheDirty[i]) {
+			translationCacheEntry[i].dirty = true;
+			translationCacheDirty[i] = true;
+		    }
+		    return translationCacheBase[i] + offset;
+		}
+	    }
+	}
+
+	TranslationEntry entry = null;
+
+	if (!usingTLB) {
+	    if (translations == null || vpn >= translations.length ||
+		translations[vpn] == null ||
+		!translations[vpn].valid) {
+		privilege.stats.numPageFaults++;
+		throw new MipsException(exceptionPageFault, vaddr);
+	    }
+
+	    entry = translations[vpn];
+	}
+	else {
+	    int i = findTLBEntry(vpn);
+	    if (i == -1) {
+		privilege.stats.numTLBMisses++;
+		throw new MipsException(exceptionTLBMiss, vaddr);
+	    }
+
+	    entry = translations[i];
+	}
+
+	if (entry.readOnly && writing)
+	    throw new MipsException(exceptionReadOnly, vaddr);
+
+	int ppn = entry.ppn;
+	if (ppn < 0 || ppn >= numPhysPages)
+	    throw new MipsException(exceptionBusError, vaddr);
+
+	entry.used = true;
+	if (writing)
+	    entry.dirty = true;
+
+	if (!usingTLB) {
+	    int i = vpn & (translationCacheSize-1);
+	    translationCacheVPN[i] = vpn;
+	    translationCacheBase[i] = ppn*pageSize;
+	    translationCacheWritable[i] = !entry.readOnly;
+	    translationCacheDirty[i] = writing;
+	    translationCacheEntry[i] = entry;
+	}
+
+	return (ppn*pageSize) + offset;
+    }
+
+    /**
+     * Empty the translation cache. Called whenever the page table may have
+     * changed: when a new page table or TLB entry is installed, and on every
+     * entry into the kernel, since only the kernel can modify translation
+     * entries.
+     */
+    private void flushTranslationCache() {
+	Arrays.fill(translationCacheVPN, -1);
+	Arrays.fill(translationCacheEntry, null);
+    }
+
     /**
      * Read </i>size</i> (1, 2, or 4) bytes of virtual memory at <i>vaddr</i>,
      * and return the result.
@@ -372,6 +719,17 @@ public final class Processor {
      * @exception	MipsException	if a translation error occurred.
      */
     private int readMem(int vaddr, int size) throws MipsException {
+	if (!debugging) {
+	    switch (size) {
+	    case 4:
+		return readWord(vaddr);
+	    case 2:
+		return readHalf(vaddr);
+	    default:
+		return readByte(vaddr);
+	    }
+	}
+	
 	if (Lib.test(dbgProcessor))
 	    System.out.println("\treadMem vaddr=0x" + Lib.toHexString(vaddr)
 			       + ", size=" + size);
@@ -399,15 +757,214 @@ public final class Processor {
      */
     private void writeMem(int vaddr, int size, int value)
 	throws MipsException {
+	if (!debugging) {
+	    switch (size) {
+	    case 4:
+		writeWord(vaddr, value);
+		break;
+	    case 2:
+		writeHalf(vaddr, value);
+		break;
+	    default:
+		writeByte(vaddr, value);
+		break;
+	    }
+	    return;
+	}
+	
 	if (Lib.test(dbgProcessor))
 	    System.out.println("\twriteMem vaddr=0x" + Lib.toHexString(vaddr)
 			       + ", size=" + size + ", value=0x"
 			       + Lib.toHexString(value, size*2));
 
 	Lib.assertTrue(size==1 || size==2 || size==4);
+
+	int paddr = translate(vaddr, size, true);
+	
+	Lib.bytesFromInt(mainMemory, paddr, size, value);
+	invalidateDecoded(paddr);
+    }
+
+    /*
+     * The following read and write a fixed size of virtual memory without
+     * any debugging output. They are only called when <tt>debugging</tt> is
+     * false.
+     */
+
+    private int readWord(int vaddr) throws MipsException {
+	return Lib.bytesToInt(mainMemory, translateFast(vaddr, 4, false));
+    }
+
+    private int readHalf(int vaddr) throws MipsException {
+	return Lib.bytesToShort(mainMemory, translateFast(vaddr, 2, false));
+    }
+
+    private int readByte(int vaddr) throws MipsException {
+	return mainMemory[translateFast(vaddr, 1, false)];
+    }
+
+    private void writeWord(int vaddr, int value) throws MipsException {
+	int paddr = translateFast(vaddr, 4, true);
+	Lib.bytesFromInt(mainMemory, paddr, value);
+	invalidateDecoded(paddr);
+    }
+
+    private void writeHalf(int vaddr, int value) throws MipsException {
+	int paddr = translateFast(vaddr, 2, true);
+	Lib.bytesFromShort(mainMemory, paddr, (short) value);
+	invalidateDecoded(paddr);
+    }
+
+    private void writeByte(int vaddr, int value) throws MipsException {
+	int paddr = translateFast(vaddr, 1, true);
+	mainMemory[paddr] = (byte) value;
+	invalidateDecoded(paddr);
+    }
+
+    /**
+     * Fetch the instruction at <i>vaddr</i>. The instruction word is only
+     * read and decoded the first time it is executed; after that the decoded
+     * instruction is taken from <tt>decodeCache</tt>.
+     *
+     * @param	vaddr	the virtual address of the instruction.
+     * @return		the decoded instruction.
+     * @exception	MipsException	if a translation error occurred.
+     */
+    private DecodedInstruction fetchDecoded(int vaddr) throws MipsException {
+	if (!debugging)
+	    return lookupDecoded(translateFast(vaddr, 4, false));
+	
+	if (Lib.test(dbgProcessor))
+	    System.out.println("\treadMem vaddr=0x" + Lib.toHexString(vaddr)
+			       + ", size=4");
+
+	DecodedInstruction decoded = lookupDecoded(translate(vaddr, 4, false));
+
+	if (Lib.test(dbgProcessor))
+	    System.out.println("\t\tvalue read=0x" +
+			       Lib.toHexString(decoded.value, 8));
+
+	return decoded;
+    }
+
+    /**
+     * Fetch the basic block starting at <i>vaddr</i>, building it from
+     * decoded instructions if it is not in <tt>blockCache</tt>.
+     *
+     * <p>
+     * A block ends after the delay slot of its first branch or jump, after
+     * any instruction that always raises an exception, or at the end of the
+     * page, whichever comes first.
+     *
+     * @param	vaddr	the virtual address of the first instruction.
+     * @return		the basic block.
+     * @exception	MipsException	if a translation error occurred.
+     */
+    private BasicBlock fetchBlock(int vaddr) throws MipsException {
+	int paddr = translateFast(vaddr, 4, false);
+	int ppn = paddr / pageSize;
+
+	checkCacheGeneration(ppn);
+	currentBlockPpn = ppn;
+
+	BasicBlock[] page = blockCache[ppn];
+	if (page == null) {
+	    page = new BasicBlock[pageSize/4];
+	    blockCache[ppn] = page;
+	}
+
+	int index = (paddr % pageSize) / 4;
+
+	BasicBlock block = page[index];
+	if (block == null) {
+	    int pageEnd = (ppn+1)*pageSize;
+	    int length = 0;
+	    boolean inDelaySlot = false;
+
+	    for (int addr=paddr; addr<pageEnd; addr+=4) {
+		DecodedInstruction decoded = lookupDecoded(addr);
+		length++;
+
+		if (inDelaySlot || decoded.endsBlock())
+		    break;
+		if (Lib.test(Mips.BRANCH, decoded.flags))
+		    inDelaySlot = true;
+	    }
+
+	    block = new BasicBlock(length);
+	    for (int i=0; i<length; i++)
+		block.instructions[i] = lookupDecoded(paddr + i*4);
+
+	    page[index] = block;
+	}
+
+	return block;
+    }
+
+    /**
+     * Return the decoded instruction at physical address <i>paddr</i>,
+     * decoding it if it is not in <tt>decodeCache</tt>.
+     *
+     * @param	paddr	the word-aligned physical address of the instruction.
+     * @return	the decoded instruction.
+     */
+    private DecodedInstruction lookupDecoded(int paddr) {
+	int ppn = paddr / pageSize;
+
+	checkCacheGeneration(ppn);
+
+	DecodedInstruction[] page = decodeCache[ppn];
+	if (page == null) {
+	    page = new DecodedInstruction[pageSize/4];
+	    decodeCache[ppn] = page;
+	}
+
+	int index = (paddr % pageSize) / 4;
+
+	DecodedInstruction decoded = page[index];
+	if (decoded == null) {
+	    decoded = new DecodedInstruction(Lib.bytesToInt(mainMemory, paddr));
+	    page[index] = decoded;
+	}
+
+	return decoded;
+    }
+
+    /**
+     * Discard the decoded instruction containing physical address
+     * <i>paddr</i>, and any basic blocks on the same page, because it has
+     * been overwritten.
+     *
+     * @param	paddr	the physical address that was written.
+     */
+    private void invalidateDecoded(int paddr) {
+	int ppn = paddr / pageSize;
 	
-	Lib.bytesFromInt(mainMemory, translate(vaddr, size, true), size,
-			 value);
+	DecodedInstruction[] page = decodeCache[ppn];
+	if (page != null)
+	    page[(paddr % pageSize) / 4] = null;
+
+	blockCache[ppn] = null;
+
+	if (ppn == currentBlockPpn)
+	    currentBlockPpn = -1;
+    }
+
+    /**
+     * Empty the decode and block caches for the specified physical page if
+     * main memory may have been written since they were filled.
+     *
+     * @param	ppn	the physical page number.
+     */
+    private void checkCacheGeneration(int ppn) {
+	if (cacheGeneration[ppn] == memoryGeneration)
+	    return;
+
+	if (decodeCache[ppn] != null)
+	    Arrays.fill(decodeCache[ppn], null);
+	blockCache[ppn] = null;
+
+	cacheGeneration[ppn] = memoryGeneration;
     }
 
     /**
@@ -541,6 +1098,15 @@ public final class Processor {
     private boolean usingTLB;
     /** Number of TLB entries. */
     private int tlbSize = 4;
+    /**
+     * An open-addressed hash table mapping each VPN with a valid TLB entry to
+     * the index of that entry. Unused slots have a VPN of -1.
+     */
+    private int[] tlbIndexVPN, tlbIndexEntry;
+    /** The number of hits on each TLB entry, shared with <tt>Stats</tt>. */
+    private long[] tlbHits;
+    /** The TLB entry <tt>findTLBEntry()</tt> last found. */
+    private int lastTLBEntry = -1;
     /**
      * Either an associative or direct-mapped set of translation entries,
      * depending on whether there is a TLB.
@@ -556,6 +1122,66 @@ public final class Processor {
     /** Main memory for user programs. */
     private byte[] mainMemory;
 
+    /**
+     * Decoded instructions, indexed by physical page number and then by word
+     * within the page. A page array is allocated the first time an
+     * instruction on that page is executed.
+     */
+    private DecodedInstruction[][] decodeCache;
+    /**
+     * Basic blocks, indexed by the physical page number and word offset of
+     * their first instruction.
+     */
+    private BasicBlock[][] blockCache;
+    /**
+     * The value of <tt>memoryGeneration</tt> when each page of
+     * <tt>decodeCache</tt> and <tt>blockCache</tt> was last known to be
+     * current.
+     */
+    private int[] cacheGeneration;
+    /**
+     * Incremented whenever the kernel is given direct access to main memory,
+     * making every page of <tt>decodeCache</tt> and <tt>blockCache</tt>
+     * stale.
+     */
+    private int memoryGeneration = 0;
+
+    /**
+     * The number of entries in the translation cache. Must be a power of
+     * two.
+     */
+    private static final int translationCacheSize = 64;
+    /**
+     * A direct-mapped cache of recent page table lookups, indexed by the low
+     * bits of the VPN and used by <tt>translateFast()</tt> when not using a
+     * TLB. An entry holds the VPN (or -1 if empty), the physical address of
+     * the page, whether it may be written, whether the translation entry has
+     * been marked dirty since the fill, and the translation entry itself.
+     */
+    private int[] translationCacheVPN, translationCacheBase;
+    private boolean[] translationCacheWritable, translationCacheDirty;
+    private TranslationEntry[] translationCacheEntry;
+
+    /**
+     * <tt>true</tt> if any processor or disassembler debug flag was set at
+     * startup. When <tt>false</tt>, memory is accessed through
+     * <tt>translateFast()</tt> and the fixed-size helpers instead.
+     */
+    private boolean debugging;
+    /** <tt>true</tt> if executing a basic block at a time. */
+    private boolean usingBlocks;
+    /**
+     * Incremented when an interrupt handler is about to run, so that
+     * <tt>runBlocks()</tt> knows to look up the next block through the MMU.
+     */
+    private int numPipeFlushes = 0;
+    /**
+     * The physical page of the block fetched by the last call to
+     * <tt>fetchBlock()</tt>, or -1 once a store to that page has made the
+     * rest of the block stale.
+     */
+    private int currentBlockPpn = -1;
+
     /** The kernel exception handler, called on every user exception. */
     private Runnable exceptionHandler = null;
 
@@ -566,6 +1192,8 @@ public final class Processor {
     private class ProcessorPrivilege implements Privilege.ProcessorPrivilege {
 	public void flushPipe() {
 	    finishLoad();
+	    flushTranslationCache();
+	    numPipeFlushes++;
 	}
     }
 
@@ -593,6 +1221,7 @@ public final class Processor {
 		System.out.println("exception: " + exceptionNames[cause]);
 
 	    finishLoad();
+	    flushTranslationCache();
 
 	    Lib.assertTrue(exceptionHandler != null);
 
@@ -616,8 +1245,21 @@ public final class Processor {
 	    writeBack();
 	}	
 
+	/**
+	 * Execute an instruction that has already been fetched. Used by
+	 * <tt>runBlocks()</tt>.
+	 *
+	 * @param	decoded	the instruction at the current PC.
+	 */
+	public void run(DecodedInstruction decoded) throws MipsException {
+	    this.decoded = decoded;
+	    decode();
+	    execute();
+	    writeBack();
+	}
+
 	private boolean test(int flag) {
-	    return Lib.test(flag, flags);
+	    return Lib.test(flag, decoded.flags);
 	}
 
 	private void fetch() throws MipsException {
@@ -626,92 +1268,44 @@ public final class Processor {
 		System.out.print("PC=0x" + Lib.toHexString(registers[regPC])
 				 + "\t");
 
-	    value = readMem(registers[regPC], 4);
+	    decoded = fetchDecoded(registers[regPC]);
 	}
 	
 	private void decode() {
-	    op = Lib.extract(value, 26, 6);
-	    rs = Lib.extract(value, 21, 5);
-	    rt = Lib.extract(value, 16, 5);
-	    rd = Lib.extract(value, 11, 5);
-	    sh = Lib.extract(value, 6, 5);
-	    func = Lib.extract(value, 0, 6);
-	    target = Lib.extract(value, 0, 26);
-	    imm = Lib.extend(value, 0, 16);
-
-	    Mips info;
-	    switch (op) {
-	    case 0:
-		info = Mips.specialtable[func];
-		break;
-	    case 1:
-		info = Mips.regimmtable[rt];
-		break;
-	    default:
-		info = Mips.optable[op];
-		break;
-	    }
-
-	    operation = info.operation;
-	    name = info.name;
-	    format = info.format;
-	    flags = info.flags;
+	    // everything that depends only on the instruction word was decoded
+	    // by fetchDecoded(), so only the register operands are left
+	    DecodedInstruction d = decoded;
 
 	    mask = 0xFFFFFFFF;	
 	    branch = true;
-	
-	    // get memory access size
-	    if (test(Mips.SIZEB))
-		size = 1;
-	    else if (test(Mips.SIZEH))
-		size = 2;
-	    else if (test(Mips.SIZEW))
-		size = 4;
-	    else
-		size = 0;
 
 	    // get nextPC
 	    nextPC = registers[regNextPC]+4;
 
-	    // get dstReg
-	    if (test(Mips.DSTRA))
-		dstReg = regRA;
-	    else if (format == Mips.IFMT)
-		dstReg = rt;
-	    else if (format == Mips.RFMT)
-		dstReg = rd;
-	    else
-		dstReg = -1;
-
 	    // get jtarget
-	    if (format == Mips.RFMT)
-		jtarget = registers[rs];
-	    else if (format == Mips.IFMT)
-		jtarget = registers[regNextPC] + (imm<<2);
-	    else if (format == Mips.JFMT)
-		jtarget = (registers[regNextPC]&0xF0000000) | (target<<2);
+	    if (d.format == Mips.RFMT)
+		jtarget = registers[d.rs];
+	    else if (d.format == Mips.IFMT)
+		jtarget = registers[regNextPC] + d.branchOffset;
+	    else if (d.format == Mips.JFMT)
+		jtarget = (registers[regNextPC]&0xF0000000) | (d.target<<2);
 	    else
 		jtarget = -1;
 
-	    // get imm
-	    if (test(Mips.UNSIGNED)) {
-		imm &= 0xFFFF;
-	    }
-
 	    // get addr
-	    addr = registers[rs] + imm;
+	    addr = registers[d.rs] + d.imm;
 
 	    // get src1
 	    if (test(Mips.SRC1SH))
-		src1 = sh;
+		src1 = d.sh;
 	    else
-		src1 = registers[rs];
+		src1 = registers[d.rs];
 
 	    // get src2
 	    if (test(Mips.SRC2IMM))
-		src2 = imm;
+		src2 = d.imm;
 	    else
-		src2 = registers[rt];
+		src2 = registers[d.rt];
 
 	    if (test(Mips.UNSIGNED)) {
 		src1 &= 0xFFFFFFFFL;
@@ -723,27 +1317,30 @@ public final class Processor {
 	}
 
 	private void print() {
+	    DecodedInstruction d = decoded;
+
 	    if (Lib.test(dbgDisassemble) && Lib.test(dbgProcessor) &&
 		!Lib.test(dbgFullDisassemble))
 		System.out.print("PC=0x" + Lib.toHexString(registers[regPC])
 				 + "\t");
 	    
-	    if (operation == Mips.INVALID) {
-		System.out.print("invalid: op=" + Lib.toHexString(op, 2) +
-				 " rs=" + Lib.toHexString(rs, 2) +
-				 " rt=" + Lib.toHexString(rt, 2) +
-				 " rd=" + Lib.toHexString(rd, 2) +
-				 " sh=" + Lib.toHexString(sh, 2) +
-				 " func=" + Lib.toHexString(func, 2) +
+	    if (d.operation == Mips.INVALID) {
+		System.out.print("invalid: op=" + Lib.toHexString(d.op, 2) +
+				 " rs=" + Lib.toHexString(d.rs, 2) +
+				 " rt=" + Lib.toHexString(d.rt, 2) +
+				 " rd=" + Lib.toHexString(d.rd, 2) +
+				 " sh=" + Lib.toHexString(d.sh, 2) +
+				 " func=" + Lib.toHexString(d.func, 2) +
 				 "\n");
 		return;
 	    }
 
-	    int spaceIndex = name.indexOf(' ');
-	    Lib.assertTrue(spaceIndex!=-1 && spaceIndex==name.lastIndexOf(' '));
+	    int spaceIndex = d.name.indexOf(' ');
+	    Lib.assertTrue(spaceIndex!=-1 &&
+			   spaceIndex==d.name.lastIndexOf(' '));
 
-	    String instname = name.substring(0, spaceIndex);
-	    char[] args = name.substring(spaceIndex+1).toCharArray();
+	    String instname = d.name.substring(0, spaceIndex);
+	    char[] args = d.name.substring(spaceIndex+1).toCharArray();
 
 	    System.out.print(instname + "\t");
 
@@ -752,19 +1349,19 @@ public final class Processor {
 	    for (int i=0; i<args.length; i++) {
 		switch (args[i]) {
 		case Mips.RS:
-		    System.out.print("$" + rs);
+		    System.out.print("$" + d.rs);
 		    minCharsPrinted += 2;
 		    maxCharsPrinted += 3;
 		    
 		    if (Lib.test(dbgFullDisassemble)) {
 			System.out.print("#0x" +
-					 Lib.toHexString(registers[rs]));
+					 Lib.toHexString(registers[d.rs]));
 			minCharsPrinted += 11;
 			maxCharsPrinted += 11;
 		    }
 		    break;
 		case Mips.RT:
-		    System.out.print("$" + rt);
+		    System.out.print("$" + d.rt);
 		    minCharsPrinted += 2;
 		    maxCharsPrinted += 3;
 
@@ -772,37 +1369,37 @@ public final class Processor {
 			(i!=0 || !test(Mips.DST)) &&
 			!test(Mips.DELAYEDLOAD)) {
 			System.out.print("#0x" +
-					 Lib.toHexString(registers[rt]));
+					 Lib.toHexString(registers[d.rt]));
 			minCharsPrinted += 11;
 			maxCharsPrinted += 11;
 		    }
 		    break;
 		case Mips.RETURNADDRESS:
-		    if (rd == 31)
+		    if (d.rd == 31)
 			continue;
 		case Mips.RD:
-		    System.out.print("$" + rd);
+		    System.out.print("$" + d.rd);
 		    minCharsPrinted += 2;
 		    maxCharsPrinted += 3;
 		    break;
 		case Mips.IMM:
-		    System.out.print(imm);
+		    System.out.print(d.imm);
 		    minCharsPrinted += 1;
 		    maxCharsPrinted += 6;
 		    break;
 		case Mips.SHIFTAMOUNT:
-		    System.out.print(sh);
+		    System.out.print(d.sh);
 		    minCharsPrinted += 1;
 		    maxCharsPrinted += 2;
 		    break;
 		case Mips.ADDR:
-		    System.out.print(imm + "($" + rs);
+		    System.out.print(d.imm + "($" + d.rs);
 		    minCharsPrinted += 4;
 		    maxCharsPrinted += 5;
 
 		    if (Lib.test(dbgFullDisassemble)) {
 			System.out.print("#0x" +
-					 Lib.toHexString(registers[rs]));
+					 Lib.toHexString(registers[d.rs]));
 			minCharsPrinted += 11;
 			maxCharsPrinted += 11;
 		    }
@@ -848,8 +1445,9 @@ public final class Processor {
 	private void execute() throws MipsException {
 	    int value;
 	    int preserved;
+	    int size = decoded.size;
 	    
-	    switch (operation) {
+	    switch (decoded.operation) {
 	    case Mips.ADD:
 		dst = src1 + src2;
 		break;
@@ -900,7 +1498,7 @@ public final class Processor {
 		dst = src1 ^ src2;
 		break;
 	    case Mips.LUI:
-		dst = imm << 16;
+		dst = decoded.imm << 16;
 		break;
 
 	    case Mips.BEQ:
@@ -1021,6 +1619,8 @@ public final class Processor {
 	    if (test(Mips.OVERFLOW) && Lib.test(dst,31) != Lib.test(dst,32))
 		throw new MipsException(exceptionOverflow);
 
+	    int dstReg = decoded.dstReg;
+
 	    if (test(Mips.DELAYEDLOAD))
 		delayedLoad(dstReg, (int) dst, mask);
 	    else
@@ -1052,17 +1652,113 @@ public final class Processor {
 	}
     
 	// state used to execute a single instruction
-	int value, op, rs, rt, rd, sh, func, target, imm;
-	int operation, format, flags;
-	String name;
+	DecodedInstruction decoded;
 
-	int size;
-	int addr, nextPC, jtarget, dstReg;
+	int addr, nextPC, jtarget;
 	long src1, src2, dst;
 	int mask;	
 	boolean branch;
     }
 
+    /**
+     * The parts of an instruction that depend only on the instruction word.
+     * Once decoded, an instruction can be executed any number of times
+     * without being fetched or decoded again, as long as the word it was
+     * decoded from is not overwritten.
+     */
+    private static class DecodedInstruction {
+	DecodedInstruction(int value) {
+	    this.value = value;
+	    
+	    op = Lib.extract(value, 26, 6);
+	    rs = Lib.extract(value, 21, 5);
+	    rt = Lib.extract(value, 16, 5);
+	    rd = Lib.extract(value, 11, 5);
+	    sh = Lib.extract(value, 6, 5);
+	    func = Lib.extract(value, 0, 6);
+	    target = Lib.extract(value, 0, 26);
+
+	    int imm = Lib.extend(value, 0, 16);
+
+	    Mips info;
+	    switch (op) {
+	    case 0:
+		info = Mips.specialtable[func];
+		break;
+	    case 1:
+		info = Mips.regimmtable[rt];
+		break;
+	    default:
+		info = Mips.optable[op];
+		break;
+	    }
+
+	    operation = info.operation;
+	    name = info.name;
+	    format = info.format;
+	    flags = info.flags;
+
+	    // get memory access size
+	    if (Lib.test(Mips.SIZEB, flags))
+		size = 1;
+	    else if (Lib.test(Mips.SIZEH, flags))
+		size = 2;
+	    else if (Lib.test(Mips.SIZEW, flags))
+		size = 4;
+	    else
+		size = 0;
+
+	    // get dstReg
+	    if (Lib.test(Mips.DSTRA, flags))
+		dstReg = regRA;
+	    else if (format == Mips.IFMT)
+		dstReg = rt;
+	    else if (format == Mips.RFMT)
+		dstReg = rd;
+	    else
+		dstReg = -1;
+
+	    // branch offsets are always signed
+	    branchOffset = imm<<2;
+
+	    // get imm
+	    if (Lib.test(Mips.UNSIGNED, flags)) {
+		imm &= 0xFFFF;
+	    }
+	    this.imm = imm;
+	}
+
+	final int value, op, rs, rt, rd, sh, func, target, imm;
+	final int operation, format, flags;
+	final String name;
+
+	final int size, dstReg, branchOffset;
+
+	/**
+	 * Test whether this instruction always raises an exception, so nothing
+	 * after it belongs in the same basic block.
+	 *
+	 * @return	<tt>true</tt> if this instruction ends a basic block.
+	 */
+	boolean endsBlock() {
+	    return (operation == Mips.SYSCALL || operation == Mips.UNIMPL ||
+		    operation == Mips.INVALID);
+	}
+    }
+
+    /**
+     * A straight-line sequence of decoded instructions within one physical
+     * page. Only the last instruction, or the one before it if the last is a
+     * delay slot, can transfer control.
+     */
+    private static class BasicBlock {
+	BasicBlock(int length) {
+	    instructions = new DecodedInstruction[length];
+	}
+
+	final DecodedInstruction[] instructions;
+    }
+
     private static class Mips {
 	Mips() {
 	}
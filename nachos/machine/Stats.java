@@ -27,6 +27,13 @@ public final class Stats {
 			   + ", writes " + numConsoleWrites);
 	System.out.println("Paging: page faults " + numPageFaults
 			   + ", TLB misses " + numTLBMisses);
+	if (tlbHits != null) {
+	    System.out.print("TLB: size " + tlbHits.length
+			     + ", hits " + numTLBHits + " (");
+	    for (int i=0; i<tlbHits.length; i++)
+		System.out.print((i == 0 ? "" : " ") + tlbHits[i]);
+	    System.out.println(")");
+	}
 	System.out.println("Network I/O: received " + numPacketsReceived
 			   + ", sent " + numPacketsSent);
     }
@@ -57,6 +64,13 @@ public final class Stats {
     public int numPageFaults = 0;
     /** The total number of TLB misses that have occurred. */
     public int numTLBMisses = 0;
+    /** The total number of TLB hits that have occurred. */
+    public long numTLBHits = 0;
+    /**
+     * The number of hits on each TLB entry, or <tt>null</tt> if the processor
+     * does not have a TLB.
+     */
+    public long[] tlbHits = null;
     /** The total number of packets Nachos has sent to the network. */
     public int numPacketsSent = 0;
     /** The total number of packets Nachos has received from the network. */
@@ -8,10 +8,16 @@ import nachos.threads.*;
 import java.io.File;
 import java.io.RandomAccessFile;
 import java.io.IOException;
+import java.util.HashMap;
 
 /**
  * This class implements a file system that redirects all requests to the host
  * operating system's file system.
+ *
+ * <p>
+ * A host file that is opened several times at once is only opened on the host
+ * once, and shared by all the <tt>OpenFile</tt>s for it until the last one is
+ * closed. The limit of <tt>maxOpenFiles</tt> applies to host files.
  */
 public class StubFileSystem implements FileSystem {
     /**
@@ -26,18 +32,45 @@ public class StubFileSystem implements FileSystem {
 	this.directory = directory;
     }
     
+    /**
+     * Open the specified host file. If the file is already open, the new
+     * <tt>OpenFile</tt> shares its <tt>RandomAccessFile</tt>, with a
+     * position of its own, and no delay is charged for the open.
+     */
     public OpenFile open(String name, boolean truncate) {
 	if (!checkName(name))
 	    return null;
-	
-	delay();
-	    
-	try {
-	    return new StubOpenFile(name, truncate);
+
+	SharedFile shared = openFiles.get(name);
+	if (shared == null) {
+	    delay();
+
+	    // another thread may have opened the file during the delay
+	    shared = openFiles.get(name);
 	}
-	catch (IOException e) {
-	    return null;
+
+	if (shared == null) {
+	    if (openCount == maxOpenFiles)
+		return null;
+
+	    shared = new SharedFile(name, truncate);
+	    if (shared.file == null)
+		return null;
+
+	    openFiles.put(name, shared);
+	    openCount++;
+	}
+	else if (truncate) {
+	    try {
+		shared.file.setLength(0);
+	    }
+	    catch (IOException e) {
+		return null;
+	    }
 	}
+
+	shared.refCount++;
+	return new StubOpenFile(name, shared);
     }
     
     public boolean remove(String name) {
@@ -48,6 +81,11 @@ public class StubFileSystem implements FileSystem {
 
 	FileRemover fr = new FileRemover(new File(directory, name));
 	privilege.doPrivileged(fr);
+
+	// files still open keep the removed file; new opens get a new one
+	if (fr.successful)
+	    openFiles.remove(name);
+
 	return fr.successful;
     }
 
@@ -71,25 +109,18 @@ public class StubFileSystem implements FileSystem {
 	Lib.assertTrue(Machine.timer().getTime() >= time+amount);
     }
 
-    private class StubOpenFile extends OpenFileWithPosition {
-	StubOpenFile(final String name, final boolean truncate)
-	    throws IOException {
-	    super(StubFileSystem.this, name);
+    /**
+     * A host file, and the number of <tt>StubOpenFile</tt>s sharing it.
+     */
+    private class SharedFile {
+	SharedFile(final String name, final boolean truncate) {
+	    this.name = name;
 
 	    final File f = new File(directory, name);
 
-	    if (openCount == maxOpenFiles)
-		throw new IOException();
-
 	    privilege.doPrivileged(new Runnable() {
 		public void run() { getRandomAccessFile(f, truncate); }
 	    });
-
-	    if (file == null)
-		throw new IOException();
-
-	    open = true;
-	    openCount++;
 	}
 
 	private void getRandomAccessFile(File f, boolean truncate) {
@@ -106,6 +137,38 @@ public class StubFileSystem implements FileSystem {
 	    }
 	}
 
+	/**
+	 * Release one reference, and close the host file if it was the last.
+	 */
+	void release() {
+	    if (--refCount > 0)
+		return;
+
+	    if (openFiles.get(name) == this)
+		openFiles.remove(name);
+	    openCount--;
+
+	    try {
+		file.close();
+	    }
+	    catch (IOException e) {
+	    }
+	}
+
+	String name;
+	RandomAccessFile file = null;
+	int refCount = 0;
+    }
+
+    private class StubOpenFile extends OpenFileWithPosition {
+	StubOpenFile(String name, SharedFile shared) {
+	    super(StubFileSystem.this, name);
+
+	    this.shared = shared;
+	    file = shared.file;
+	    open = true;
+	}
+
 	public int read(int pos, byte[] buf, int offset, int length) {
 	    if (!open)
 		return -1;
@@ -137,6 +200,65 @@ public class StubFileSystem implements FileSystem {
 	    }
 	}
 
+	/**
+	 * Read several spans with a single file system delay, rather than
+	 * one delay per span.
+	 */
+	public int read(byte[] buf, int[] offsets, int[] lengths,
+			int numSpans) {
+	    if (!open)
+		return -1;
+
+	    int total = 0;
+	    try {
+		delay();
+
+		file.seek(position);
+		for (int i=0; i<numSpans; i++) {
+		    int amount = Math.max(0, file.read(buf, offsets[i],
+							lengths[i]));
+		    total += amount;
+		    if (amount < lengths[i])
+			break;
+		}
+	    }
+	    catch (IOException e) {
+		if (total == 0)
+		    return -1;
+	    }
+
+	    position += total;
+	    return total;
+	}
+
+	/**
+	 * Write several spans with a single file system delay, rather than
+	 * one delay per span.
+	 */
+	public int write(byte[] buf, int[] offsets, int[] lengths,
+			 int numSpans) {
+	    if (!open)
+		return -1;
+
+	    int total = 0;
+	    try {
+		delay();
+
+		file.seek(position);
+		for (int i=0; i<numSpans; i++) {
+		    file.write(buf, offsets[i], lengths[i]);
+		    total += lengths[i];
+		}
+	    }
+	    catch (IOException e) {
+		if (total == 0)
+		    return -1;
+	    }
+
+	    position += total;
+	    return total;
+	}
+
 	public int length() {
 	    try {
 		return (int) file.length();
@@ -149,20 +271,19 @@ public class StubFileSystem implements FileSystem {
 	public void close() {
 	    if (open) {
 		open = false;
-		openCount--;
-	    }
-		
-	    try {
-		file.close();
-	    }
-	    catch (IOException e) {
+		shared.release();
 	    }
 	}
 
-	private RandomAccessFile file = null;
+	private SharedFile shared;
+	private RandomAccessFile file;
 	private boolean open = false;
     }
 
+    /** The open host files, by name. */
+    private HashMap<String, SharedFile> openFiles =
+	new HashMap<String, SharedFile>();
+    /** The number of host files open, however many times each is shared. */
     private int openCount = 0;
     private static final int maxOpenFiles = 16;
     
@@ -6,6 +6,8 @@ import nachos.security.*;
 import nachos.threads.KThread;
 
 import java.util.Vector;
+import java.util.concurrent.locks.LockSupport;
+import java.lang.reflect.Method;
 import java.security.PrivilegedAction;
 
 /**
@@ -21,6 +23,15 @@ import java.security.PrivilegedAction;
  * <p>
  * Do not use the <i>synchronized</i> keyword <b>anywhere</b> in your code.
  * It's against the rules, <i>and</i> it can easily deadlock nachos.
+ *
+ * <p>
+ * How control is handed from one Java thread to the next is chosen by the
+ * <tt>TCB.backend</tt> configuration key: <tt>monitor</tt> (the default)
+ * waits and notifies on a monitor, <tt>park</tt> uses
+ * <tt>LockSupport.park()</tt> and <tt>unpark()</tt>, and <tt>virtual</tt>
+ * also parks but runs each TCB in a JVM virtual thread, if the JVM has them.
+ * The virtual threads all share one carrier thread.
+ * The maximum number of TCBs is set by <tt>TCB.maxThreads</tt>.
  */
 public final class TCB {
     /**
@@ -40,6 +51,116 @@ public final class TCB {
     public static void givePrivilege(Privilege privilege) {
 	TCB.privilege = privilege;
 	privilege.tcb = new TCBPrivilege();
+
+	String backendName = Config.getString("TCB.backend", "monitor");
+	if (backendName.equals("monitor")) {
+	    backend = backendMonitor;
+	}
+	else if (backendName.equals("park")) {
+	    backend = backendPark;
+	}
+	else if (backendName.equals("virtual")) {
+	    backend = backendVirtual;
+
+	    privilege.doPrivileged(new Runnable() {
+		    public void run() { findVirtualThreadBuilder(); }
+		});
+
+	    if (virtualThreadBuilder == null) {
+		System.out.print("\nvirtual threads not available, "
+				 + "using TCB.backend = park\n");
+		backend = backendPark;
+	    }
+	}
+	else {
+	    Lib.assertNotReached("bad value for TCB.backend: " + backendName);
+	}
+
+	threadLimit = Config.getInteger("TCB.maxThreads", maxThreads);
+	Lib.assertTrue(threadLimit > 0);
+    }
+
+    /**
+     * Look up <tt>Thread.ofVirtual()</tt> and <tt>Thread.Builder.unstarted()
+     * </tt>, which only exist on JVMs with virtual threads, and start the
+     * carrier thread the virtual threads will run on. Leaves
+     * <tt>virtualThreadBuilder</tt> <tt>null</tt> if they are missing.
+     */
+    private static void findVirtualThreadBuilder() {
+	try {
+	    Method ofVirtual = Thread.class.getMethod("ofVirtual");
+	    Class<?> clsBuilder = Class.forName("java.lang.Thread$Builder");
+
+	    unstartedMethod = clsBuilder.getMethod("unstarted", Runnable.class);
+	    virtualThreadBuilder = ofVirtual.invoke(null);
+	}
+	catch (Exception e) {
+	    virtualThreadBuilder = null;
+	    return;
+	}
+
+	/* The JVM's scheduler creates a carrier thread from whichever thread
+	 * needs one, usually an unprivileged TCB, and the security manager
+	 * then refuses it. So the only carrier is created here, by starting
+	 * the thread below, and the scheduler may never add another: only one
+	 * TCB runs at a time anyway. Without the cap, a TCB blocking in file
+	 * or console I/O would ask for a new carrier.
+	 */
+	setDefaultProperty("jdk.virtualThreadScheduler.parallelism", "1");
+	setDefaultProperty("jdk.virtualThreadScheduler.maxPoolSize", "1");
+
+	/* The scheduler also lets a carrier exit after 30 seconds idle, which
+	 * happens whenever the first TCB, which is not a virtual thread, runs
+	 * that long. This thread wakes up often enough to keep it.
+	 */
+	try {
+	    Thread keepCarrier = (Thread)
+		unstartedMethod.invoke(virtualThreadBuilder, new Runnable() {
+			public void run() {
+			    while (true) {
+				try { Thread.sleep(carrierKeepAliveMillis); }
+				catch (InterruptedException e) { }
+			    }
+			}
+		    });
+	    keepCarrier.setName("TCB carrier keep-alive");
+	    keepCarrier.start();
+	}
+	catch (Exception e) {
+	    virtualThreadBuilder = null;
+	}
+    }
+
+    /**
+     * Set a system property, unless it has already been set.
+     *
+     * @param	key	the name of the property.
+     * @param	value	its value.
+     */
+    private static void setDefaultProperty(String key, String value) {
+	if (System.getProperty(key) == null)
+	    System.setProperty(key, value);
+    }
+
+    /**
+     * Create the Java thread that will run a TCB, using the configured
+     * backend. Creating Java threads is a privileged operation.
+     *
+     * @param	target	the code the new thread should run.
+     * @return	a new, unstarted Java thread.
+     */
+    private static Thread newJavaThread(Runnable target) {
+	if (backend == backendVirtual) {
+	    try {
+		return (Thread) unstartedMethod.invoke(virtualThreadBuilder,
+						       target);
+	    }
+	    catch (Exception e) {
+		Lib.assertNotReached("could not create virtual thread: " + e);
+	    }
+	}
+
+	return new Thread(target);
     }
     
     /**
@@ -66,7 +187,7 @@ public final class TCB {
 	/* Make sure there aren't too many running TCBs already. This
 	 * limitation exists in an effort to prevent wild thread usage.
 	 */
-	Lib.assertTrue(runningThreads.size() < maxThreads);
+	Lib.assertTrue(runningThreads.size() < threadLimit);
 
 	isFirstTCB = (currentTCB == null);
 
@@ -94,7 +215,7 @@ public final class TCB {
 		};
 
 	    privilege.doPrivileged(new Runnable() {
-		    public void run() { javaThread = new Thread(tcbTarget); }
+		    public void run() { javaThread = newJavaThread(tcbTarget); }
 		});
 
 	    /* The Java thread hasn't yet started, but we need to get it
@@ -247,6 +368,14 @@ public final class TCB {
 	    runningThreads.removeElement(this);
 	    if (runningThreads.isEmpty())
 		privilege.exit(0);
+
+	    /* Virtual threads cannot keep the JVM running, so the first TCB's
+	     * Java thread has to stay alive until Nachos exits.
+	     */
+	    if (isFirstTCB && backend == backendVirtual) {
+		while (true)
+		    LockSupport.park();
+	    }
 	}
 	catch (Throwable e) {
 	    System.out.print("\n");
@@ -287,7 +416,17 @@ public final class TCB {
      * from this TCB to another. We don't rely on <tt>currentTCB</tt>, since it
      * is updated by <tt>contextSwitch()</tt> before we get called.
      */
-    private synchronized void waitForInterrupt() {
+    private void waitForInterrupt() {
+	if (backend == backendMonitor) {
+	    waitOnMonitor();
+	    return;
+	}
+
+	while (!running)
+	    LockSupport.park(this);
+    }
+
+    private synchronized void waitOnMonitor() {
 	while (!running) {
 	    try { wait(); }
 	    catch (InterruptedException e) { }
@@ -300,7 +439,17 @@ public final class TCB {
      * starting and destroying TCBs, as well as in context switching to this
      * TCB.
      */
-    private synchronized void interrupt() {
+    private void interrupt() {
+	if (backend == backendMonitor) {
+	    notifyMonitor();
+	    return;
+	}
+
+	running = true;
+	LockSupport.unpark(javaThread);
+    }
+
+    private synchronized void notifyMonitor() {
 	running = true;
 	notify();
     }
@@ -326,11 +475,34 @@ public final class TCB {
 	toBeDestroyed = thread;
     }
 
+    /**
+     * The default maximum number of started, non-destroyed TCB's that can be
+     * in existence. The limit actually used is read from
+     * <tt>TCB.maxThreads</tt>.
+     */
+    public static final int maxThreads = 250;
+
     /**
      * The maximum number of started, non-destroyed TCB's that can be in
      * existence.
      */
-    public static final int maxThreads = 250;
+    private static int threadLimit = maxThreads;
+
+    private static final int backendMonitor = 0;
+    private static final int backendPark = 1;
+    private static final int backendVirtual = 2;
+
+    /** How TCBs hand control to one another. */
+    private static int backend = backendMonitor;
+
+    /**
+     * The <tt>Thread.Builder</tt> returned by <tt>Thread.ofVirtual()</tt>, and
+     * its <tt>unstarted()</tt> method, when using virtual threads.
+     */
+    private static Object virtualThreadBuilder = null;
+    private static Method unstartedMethod = null;
+    /** How often the virtual thread that keeps the carrier alive wakes. */
+    private static final long carrierKeepAliveMillis = 10000;
 
     /**
      * A reference to the currently running TCB. It is initialized to
@@ -387,8 +559,12 @@ public final class TCB {
      * when the associated Java thread ought to run ASAP. When starting or
      * destroying a TCB, this is temporarily true for a thread other than that
      * of the current TCB.
+     *
+     * <p>
+     * Volatile, because the <tt>park</tt> and <tt>virtual</tt> backends
+     * read and write it outside any monitor.
      */
-    private boolean running = false;
+    private volatile boolean running = false;
 
     /**
      * Set to <tt>true</tt> by <tt>destroy()</tt>, so that when
@@ -13,6 +13,10 @@ import nachos.security.*;
  * interrupt to occur every time approximately 500 clock ticks pass. There is
  * a small degree of randomness here, so interrupts do not occur exactly every
  * 500 ticks.
+ *
+ * In addition, the timer can be asked for a one-shot interrupt at an exact
+ * time, which is delivered to a separate handler. See
+ * <tt>setWakeupTime()</tt>.
  */
 public final class Timer {
     /**
@@ -50,6 +54,40 @@ public final class Timer {
     	this.handler = handler;
     }
 
+    /**
+     * Set the callback to use as the one-shot timer interrupt handler. It is
+     * called at the time last passed to <tt>setWakeupTime()</tt>.
+     *
+     * @param	handler		the one-shot timer interrupt handler.
+     */
+    public void setWakeupHandler(Runnable handler) {
+	wakeupHandler = handler;
+    }
+
+    /**
+     * Request a one-shot timer interrupt at exactly the specified time. This
+     * replaces any request that has not been delivered yet, so only the most
+     * recent request is ever delivered. The periodic interrupts are not
+     * affected.
+     *
+     * @param	time	the time at which to call the one-shot handler. Must
+     *			be later than the current time.
+     */
+    public void setWakeupTime(final long time) {
+	Lib.assertTrue(time > getTime());
+
+	if (time == wakeupTime)
+	    return;
+
+	wakeupTime = time;
+
+	// interrupts cannot be cancelled, so a replaced one is ignored when it
+	// fires
+	privilege.interrupt.schedule(time - getTime(), "wakeup", new Runnable() {
+		public void run() { wakeupInterrupt(time); }
+	    });
+    }
+
     /**
      * Get the current time.
      *
@@ -70,6 +108,16 @@ public final class Timer {
 		    handler.run(); //ͷƮ ڵ鷯(ͷƮ  ƾ) 
     }
 
+    private void wakeupInterrupt(long time) {
+	if (time != wakeupTime)
+	    return;
+
+	wakeupTime = -1;
+
+	if (wakeupHandler != null)
+	    wakeupHandler.run();
+    }
+
     private void scheduleInterrupt() { //층 ͷƮ   ޼ҵ
     	//System.out.println("Timer Ŭ scheduleInterrupt ");
 		int delay = Stats.TimerTicks; //ð(ð) 500 ⺻ Ǿ
@@ -89,5 +137,8 @@ public final class Timer {
 
     private Privilege privilege;
     private Runnable handler = null;
+
+    private long wakeupTime = -1;
+    private Runnable wakeupHandler = null;
 }
 
@@ -11,24 +11,23 @@ import nachos.threads.*;
  *
  * <p>
  * The post office uses a "postal worker" thread to wait for messages to arrive
- * from the network and to place them in the appropriate queues. This cannot
- * be done in the receive interrupt handler because each queue (implemented
- * with a <tt>SynchList</tt>) is protected by a lock.
+ * from the network and to place them in the appropriate queues.
  */
 public class PostOffice {
     /**
-     * Allocate a new post office, using an array of <tt>SynchList</tt>s.
+     * Allocate a new post office, using an array of <tt>ArraySynchList</tt>s.
      * Register the interrupt handlers with the network hardware and start the
      * "postal worker" thread.
      */
     public PostOffice() {
-	messageReceived = new Semaphore(0);
-	messageSent = new Semaphore(0);
-	sendLock = new Lock();
+	messageReceived =
+	    new Semaphore(0).setName("PostOffice.messageReceived");
+	messageSent = new Semaphore(0).setName("PostOffice.messageSent");
+	sendLock = new Lock().setName("PostOffice.sendLock");
 
-	queues = new SynchList[MailMessage.portLimit];
+	queues = new ArraySynchList[MailMessage.portLimit];
 	for (int i=0; i<queues.length; i++)
-	    queues[i] = new SynchList();
+	    queues[i] = new ArraySynchList().setName("PostOffice.queues");
 
 	Runnable receiveHandler = new Runnable() {
 	    public void run() { receiveInterrupt(); }
@@ -66,6 +65,31 @@ public class PostOffice {
 	return mail;
     }
 
+    /**
+     * Retrieve as many of the messages waiting on the specified port as fit
+     * in <i>mail</i>, waiting if there are none. This takes one call into the
+     * port's queue for all the messages after the first.
+     *
+     * @param	port	the port on which to wait for messages.
+     * @param	mail	the array to receive the messages, in order.
+     *
+     * @return	the number of messages received, which is at least one.
+     */
+    public int receive(int port, MailMessage[] mail) {
+	Lib.assertTrue(mail.length > 0);
+
+	MailMessage first = receive(port);
+
+	int amount = queues[port].drainTo(mail, mail.length-1);
+	System.arraycopy(mail, 0, mail, 1, amount);
+	mail[0] = first;
+
+	if (amount > 0 && Lib.test(dbgNet))
+	    System.out.println("got " + amount + " more on port " + port);
+
+	return amount+1;
+    }
+
     /**
      * Wait for incoming messages, and then put them in the correct mailbox.
      */
@@ -125,7 +149,7 @@ public class PostOffice {
 	messageSent.V();
     }
 
-    private SynchList[] queues;
+    private ArraySynchList[] queues;
     private Semaphore messageReceived;	// V'd when a message can be dequeued
     private Semaphore messageSent;	// V'd when a message can be queued
     private Lock sendLock;
@@ -158,6 +158,25 @@ public abstract class Privilege {
 	 *		MIPS user code.
 	 */
 	public void tick(boolean inKernelMode);
+
+	/**
+	 * Advance the simulated time by <i>numInstructions</i> user
+	 * instructions at once. This has the same effect as calling
+	 * <tt>tick(false)</tt> that many times, provided no interrupt is due
+	 * before the last of them; see <tt>ticksUntilDue()</tt>.
+	 *
+	 * @param	numInstructions	the number of user instructions
+	 *				executed.
+	 */
+	public void tick(int numInstructions);
+
+	/**
+	 * Return the number of ticks until the next pending interrupt is due,
+	 * or <tt>Long.MAX_VALUE</tt> if there are no pending interrupts.
+	 *
+	 * @return	the number of ticks until the next interrupt.
+	 */
+	public long ticksUntilDue();
     }
 
     /**
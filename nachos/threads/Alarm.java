@@ -1,8 +1,8 @@
 package nachos.threads;
 
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.PriorityQueue;
 import java.util.Queue;
 
 import nachos.machine.*;
@@ -23,6 +23,13 @@ public class Alarm {
    Machine.timer().setInterruptHandler(new Runnable() { //timer -> ϵ ð 
       public void run() { timerInterrupt(); }
        });
+
+	tickless = Config.getBoolean("Alarm.tickless", false);
+	if (tickless) {
+	    Machine.timer().setWakeupHandler(new Runnable() {
+		    public void run() { wakeupInterrupt(); }
+		});
+	}
     }
 
     /**
@@ -35,17 +42,50 @@ public class Alarm {
        //System.out.println("Alarm Ŭ timerInterrupt ");
        //KThread.currentThread().yield();
 
-      Iterator<KThread> it = waitingQueue.keySet().iterator();
-      while (it.hasNext()) {
-         KThread k = it.next();
-         if (waitingQueue.get(k) <= Machine.timer().getTime()) { // ͷƮ waketime ٸ
-            k.ready(); // ready ¿ ְ 
-            it.remove(); //  ͷƮ 
-         }
-      }
+      if (!tickless)
+         wakeDueThreads();
       KThread.currentThread().yield();
    }
 
+    /**
+     * The one-shot timer interrupt handler, used if <tt>Alarm.tickless</tt>
+     * is set. This is called at the earliest wake time of any sleeping
+     * thread, so sleeping threads are woken at exactly their wake time
+     * rather than at the next periodic interrupt.
+     */
+    private void wakeupInterrupt() {
+	wakeDueThreads();
+
+	discardCancelled();
+	if (!waitingQueue.isEmpty())
+	    Machine.timer().setWakeupTime(waitingQueue.peek().wakeTime);
+    }
+
+    /**
+     * Move every sleeping thread whose wake time has passed to the ready
+     * set.
+     */
+    private void wakeDueThreads() {
+      //  ť waketime  ĵǾ Ƿ waketime  常 
+      long time = Machine.timer().getTime();
+      while (!waitingQueue.isEmpty() && waitingQueue.peek().wakeTime <= time) {
+         WaitingThread waiter = waitingQueue.poll();
+         if (!waiter.cancelled) {
+            sleepers.remove(waiter.thread);
+            waiter.thread.ready(); // ready ¿ 
+         }
+      }
+    }
+
+    /**
+     * Remove the entries of cancelled sleepers from the top of the heap, so
+     * that the head is the next thread that really has to be woken.
+     */
+    private void discardCancelled() {
+	while (!waitingQueue.isEmpty() && waitingQueue.peek().cancelled)
+	    waitingQueue.poll();
+    }
+
     /**
      * Put the current thread to sleep for at least <i>x</i> ticks,
      * waking it up in the timer interrupt handler. The thread must be
@@ -68,12 +108,72 @@ public class Alarm {
     		return;
     	//while (wakeTime > Machine.timer().getTime()) {
     	// KThread.yield();
-    	Machine.interrupt().disable();
-    	waitingQueue.put(KThread.currentThread(), wakeTime);
+    	boolean intStatus = Machine.interrupt().disable();
+    	WaitingThread waiter = new WaitingThread(KThread.currentThread(), wakeTime);
+    	waitingQueue.add(waiter);
+    	sleepers.put(waiter.thread, waiter);
+    	discardCancelled();
+    	if (tickless && waitingQueue.peek() == waiter)
+    		Machine.timer().setWakeupTime(wakeTime);
     	KThread.sleep();
-    	System.out.println (" wakeTime :"+ Machine.timer(). getTime());
-    	Machine.interrupt().enable();
+    	Machine.interrupt().restore(intStatus);
+    }
+
+    /**
+     * Wake up the specified thread before its wake time, if it is sleeping in
+     * <tt>waitUntil()</tt>. The thread's entry is only marked as cancelled,
+     * and is discarded when it reaches the top of the heap, so this does not
+     * depend on the number of sleeping threads.
+     *
+     * @param	thread	the thread to wake up.
+     * @return	<tt>true</tt> if the thread was sleeping and has been moved to
+     *		the ready set, <tt>false</tt> if it was not sleeping.
+     */
+    public boolean cancel(KThread thread) {
+	boolean intStatus = Machine.interrupt().disable();
+
+	WaitingThread waiter = sleepers.remove(thread);
+	if (waiter != null) {
+	    waiter.cancelled = true;
+	    thread.ready();
+	}
+
+	Machine.interrupt().restore(intStatus);
+	return (waiter != null);
     }
     
-   HashMap<KThread, Long> waitingQueue = new HashMap<>();
+    /**
+     * A thread waiting in <tt>waitUntil()</tt>. Threads with the same wake
+     * time are woken in the order they started waiting.
+     */
+    private class WaitingThread implements Comparable<WaitingThread> {
+	WaitingThread(KThread thread, long wakeTime) {
+	    this.thread = thread;
+	    this.wakeTime = wakeTime;
+	    this.sequence = numWaited++;
+	}
+
+	public int compareTo(WaitingThread other) {
+	    if (wakeTime != other.wakeTime)
+		return wakeTime < other.wakeTime ? -1 : 1;
+	    else if (sequence != other.sequence)
+		return sequence < other.sequence ? -1 : 1;
+	    else
+		return 0;
+	}
+
+	KThread thread;
+	long wakeTime;
+	long sequence;
+	/** Set when the thread is woken early by <tt>cancel()</tt>. */
+	boolean cancelled = false;
+    }
+
+    private PriorityQueue<WaitingThread> waitingQueue =
+	new PriorityQueue<WaitingThread>();
+    /** The entry of each sleeping thread that has not been cancelled. */
+    private HashMap<KThread, WaitingThread> sleepers =
+	new HashMap<KThread, WaitingThread>();
+   private long numWaited = 0;
+   private boolean tickless;
 }
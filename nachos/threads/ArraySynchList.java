@@ -0,0 +1,397 @@
+package nachos.threads;
+
+import nachos.machine.*;
+
+/**
+ * A synchronized queue backed by a circular array. It behaves like a
+ * <tt>SynchList</tt>, but does not allocate a node for each object, and can
+ * add and remove many objects at once. It also offers removal without
+ * blocking, and removal that gives up after a number of ticks.
+ *
+ * <p>
+ * The queue is synchronized by disabling interrupts, as in
+ * <tt>Semaphore</tt>, so no lock is acquired per object or per call.
+ *
+ * @see	nachos.threads.SynchList
+ */
+public class ArraySynchList {
+    /**
+     * Allocate a new synchronized queue.
+     */
+    public ArraySynchList() {
+	objects = new Object[16];
+    }
+
+    /**
+     * Add the specified object to the end of the queue. If another thread is
+     * waiting to remove an object, it is woken up.
+     *
+     * @param	o	the object to add. Must not be <tt>null</tt>.
+     */
+    public void add(Object o) {
+	Lib.assertTrue(o != null);
+
+	boolean intStatus = Machine.interrupt().disable();
+
+	ensureCapacity(count + 1);
+	objects[(head + count) % objects.length] = o;
+	count++;
+
+	wakeOne();
+
+	Machine.interrupt().restore(intStatus);
+    }
+
+    /**
+     * Add the first <i>length</i> objects in the specified array to the end of
+     * the queue, in order, and wake up as many waiting threads as there are
+     * new objects.
+     *
+     * @param	o	the objects to add. None may be <tt>null</tt>.
+     * @param	length	the number of objects to add.
+     */
+    public void addAll(Object[] o, int length) {
+	Lib.assertTrue(length >= 0 && length <= o.length);
+
+	boolean intStatus = Machine.interrupt().disable();
+
+	ensureCapacity(count + length);
+	for (int i=0; i<length; i++) {
+	    Lib.assertTrue(o[i] != null);
+	    objects[(head + count) % objects.length] = o[i];
+	    count++;
+	}
+
+	for (int i=0; i<length; i++) {
+	    if (!wakeOne())
+		break;
+	}
+
+	Machine.interrupt().restore(intStatus);
+    }
+
+    /**
+     * Remove an object from the front of the queue, blocking until the queue
+     * is non-empty if necessary.
+     *
+     * @return	the element removed from the front of the queue.
+     */
+    public Object removeFirst() {
+	boolean intStatus = Machine.interrupt().disable();
+
+	long waitStart = beginWait();
+	while (count == 0) {
+	    waitQueue.waitForAccess(KThread.currentThread());
+	    KThread.sleep();
+	}
+	endWait(waitStart);
+
+	Object o = take();
+
+	Machine.interrupt().restore(intStatus);
+	return o;
+    }
+
+    /**
+     * Remove an object from the front of the queue, blocking until the queue
+     * is non-empty or at least <i>timeout</i> ticks have passed. The thread
+     * waits using <tt>Alarm.waitUntil()</tt>, so it may notice the timeout
+     * only at the next timer interrupt.
+     *
+     * @param	timeout	the maximum number of ticks to wait.
+     * @return	the element removed from the front of the queue, or
+     *		<tt>null</tt> if the queue was still empty after
+     *		<i>timeout</i> ticks.
+     */
+    public Object removeFirst(long timeout) {
+	boolean intStatus = Machine.interrupt().disable();
+
+	long deadline = Machine.timer().getTime() + timeout;
+	KThread thread = KThread.currentThread();
+
+	long waitStart = beginWait();
+	while (count == 0) {
+	    long remaining = deadline - Machine.timer().getTime();
+	    if (remaining <= 0)
+		break;
+
+	    // add() wakes us early by cancelling the alarm
+	    long ticket = addTimedWaiter(thread);
+	    ThreadedKernel.alarm.waitUntil(remaining);
+	    removeTimedWaiter(ticket);
+	}
+	endWait(waitStart);
+
+	Object o = (count > 0 ? take() : null);
+
+	Machine.interrupt().restore(intStatus);
+	return o;
+    }
+
+    /**
+     * Remove an object from the front of the queue if there is one, without
+     * blocking.
+     *
+     * @return	the element removed from the front of the queue, or
+     *		<tt>null</tt> if the queue is empty.
+     */
+    public Object tryRemoveFirst() {
+	boolean intStatus = Machine.interrupt().disable();
+
+	Object o = (count > 0 ? take() : null);
+
+	Machine.interrupt().restore(intStatus);
+	return o;
+    }
+
+    /**
+     * Remove up to <i>max</i> objects from the front of the queue without
+     * blocking, and store them in order at the start of the specified array.
+     *
+     * @param	o	the array to receive the objects.
+     * @param	max	the maximum number of objects to remove.
+     * @return	the number of objects removed, which is zero if the queue is
+     *		empty.
+     */
+    public int drainTo(Object[] o, int max) {
+	Lib.assertTrue(max >= 0 && max <= o.length);
+
+	boolean intStatus = Machine.interrupt().disable();
+
+	int amount = Math.min(max, count);
+	for (int i=0; i<amount; i++)
+	    o[i] = take();
+
+	Machine.interrupt().restore(intStatus);
+	return amount;
+    }
+
+    /**
+     * Name this queue, as described in <tt>ContentionStats</tt>.
+     *
+     * @param	name	the name, or <tt>null</tt>.
+     * @return	this queue.
+     */
+    public ArraySynchList setName(String name) {
+	stats = ContentionStats.forName(name);
+	return this;
+    }
+
+    /**
+     * Count a call that removes an object, and if the queue is empty, start
+     * timing the wait.
+     *
+     * @return	the time the wait began, or -1 if there is no wait to time.
+     */
+    private long beginWait() {
+	if (stats == null)
+	    return -1;
+
+	if (count > 0) {
+	    stats.acquired();
+	    return -1;
+	}
+
+	return stats.beginWait(++numWaiting);
+    }
+
+    private void endWait(long waitStart) {
+	if (waitStart >= 0) {
+	    numWaiting--;
+	    stats.endWait(waitStart);
+	}
+    }
+
+    private Object take() {
+	Object o = objects[head];
+	objects[head] = null;
+	head = (head + 1) % objects.length;
+	count--;
+
+	return o;
+    }
+
+    /**
+     * Wake up one thread waiting to remove an object, preferring threads
+     * waiting without a timeout.
+     *
+     * @return	<tt>true</tt> if a thread was woken up.
+     */
+    private boolean wakeOne() {
+	KThread thread = waitQueue.nextThread();
+	if (thread != null) {
+	    thread.ready();
+	    return true;
+	}
+
+	thread = nextTimedWaiter();
+	if (thread != null) {
+	    // if the alarm has already woken the thread, it is ready anyway
+	    ThreadedKernel.alarm.cancel(thread);
+	    return true;
+	}
+
+	return false;
+    }
+
+    /**
+     * Add a thread to the end of <tt>timedWaiters</tt>.
+     *
+     * @param	thread	the thread about to wait with a timeout.
+     * @return	a ticket identifying the thread's slot, to pass to
+     *		<tt>removeTimedWaiter()</tt>.
+     */
+    private long addTimedWaiter(KThread thread) {
+	if (numTimedSlots == timedWaiters.length) {
+	    KThread[] newWaiters = new KThread[timedWaiters.length*2];
+	    for (int i=0; i<numTimedSlots; i++)
+		newWaiters[i] =
+		    timedWaiters[(timedHead + i) % timedWaiters.length];
+
+	    timedWaiters = newWaiters;
+	    timedHead = 0;
+	}
+
+	timedWaiters[(timedHead + numTimedSlots) % timedWaiters.length] =
+	    thread;
+
+	return timedHeadTicket + numTimedSlots++;
+    }
+
+    /**
+     * Clear the slot of a thread that has finished a timed wait, if
+     * <tt>wakeOne()</tt> has not already taken it. Tickets are numbered in
+     * slot order, so the slot is found from the ticket directly.
+     *
+     * @param	ticket	the value <tt>addTimedWaiter()</tt> returned.
+     */
+    private void removeTimedWaiter(long ticket) {
+	if (ticket < timedHeadTicket)
+	    return;
+
+	int index = (int) (ticket - timedHeadTicket);
+	timedWaiters[(timedHead + index) % timedWaiters.length] = null;
+
+	while (numTimedSlots > 0 && timedWaiters[timedHead] == null)
+	    popTimedSlot();
+    }
+
+    /**
+     * Remove and return the thread that started a timed wait first.
+     *
+     * @return	the thread, or <tt>null</tt> if no thread is in a timed wait.
+     */
+    private KThread nextTimedWaiter() {
+	while (numTimedSlots > 0) {
+	    KThread thread = timedWaiters[timedHead];
+	    popTimedSlot();
+
+	    if (thread != null)
+		return thread;
+	}
+
+	return null;
+    }
+
+    private void popTimedSlot() {
+	timedWaiters[timedHead] = null;
+	timedHead = (timedHead + 1) % timedWaiters.length;
+	numTimedSlots--;
+	timedHeadTicket++;
+    }
+
+    private void ensureCapacity(int capacity) {
+	if (capacity <= objects.length)
+	    return;
+
+	int newLength = objects.length;
+	while (newLength < capacity)
+	    newLength *= 2;
+
+	Object[] newObjects = new Object[newLength];
+	for (int i=0; i<count; i++)
+	    newObjects[i] = objects[(head + i) % objects.length];
+
+	objects = newObjects;
+	head = 0;
+    }
+
+    private static class PingTest implements Runnable {
+	PingTest(ArraySynchList ping, ArraySynchList pong, int count) {
+	    this.ping = ping;
+	    this.pong = pong;
+	    this.count = count;
+	}
+
+	public void run() {
+	    Object[] o = new Object[4];
+
+	    for (int i=0; i<count; ) {
+		pong.add(ping.removeFirst());
+		int amount = ping.drainTo(o, Math.min(o.length, count-i-1));
+		pong.addAll(o, amount);
+		i += 1 + amount;
+	    }
+	}
+
+	private ArraySynchList ping;
+	private ArraySynchList pong;
+	private int count;
+    }
+
+    /**
+     * Test that this module is working.
+     */
+    public static void selfTest() {
+	ArraySynchList ping = new ArraySynchList();
+	ArraySynchList pong = new ArraySynchList();
+
+	Lib.assertTrue(ping.tryRemoveFirst() == null);
+	Lib.assertTrue(ping.removeFirst(100) == null);
+
+	new KThread(new PingTest(ping, pong, 10 + 1 + 40)).setName("ping").fork();
+
+	for (int i=0; i<10; i++) {
+	    Integer o = Integer.valueOf(i);
+	    ping.add(o);
+	    Lib.assertTrue(pong.removeFirst(100*Stats.TimerTicks) == o);
+	}
+
+	// more objects than the initial capacity, with the head wrapped
+	Object[] o = new Object[40];
+	for (int i=0; i<o.length; i++)
+	    o[i] = Integer.valueOf(i);
+
+	ping.add(o[0]);
+	Lib.assertTrue(pong.removeFirst() == o[0]);
+	ping.addAll(o, o.length);
+
+	int received = 0;
+	while (received < o.length) {
+	    Object next = pong.removeFirst();
+	    Lib.assertTrue(next == o[received]);
+	    received++;
+	}
+	Lib.assertTrue(pong.tryRemoveFirst() == null);
+    }
+
+    private Object[] objects;
+    private int head = 0;
+    private int count = 0;
+
+    private ThreadQueue waitQueue =
+	ThreadedKernel.scheduler.newThreadQueue(false);
+    /**
+     * The threads in a timed wait, in a circular array in the order they
+     * started waiting. A thread that times out clears its slot.
+     */
+    private KThread[] timedWaiters = new KThread[4];
+    private int timedHead = 0;
+    /** The number of slots in use, including cleared ones. */
+    private int numTimedSlots = 0;
+    /** The ticket of the slot at <tt>timedHead</tt>. */
+    private long timedHeadTicket = 0;
+
+    private ContentionStats stats = ContentionStats.forName("ArraySynchList");
+    private int numWaiting = 0;
+}
@@ -0,0 +1,90 @@
+package nachos.threads;
+
+import nachos.machine.*;
+
+/**
+ * A <tt>Barrier</tt> makes a fixed number of threads wait for each other.
+ * Each thread calls <tt>await()</tt>, which blocks until all of them have
+ * called it. The barrier then resets, so the same threads can use it again.
+ */
+public class Barrier {
+    /**
+     * Allocate a new barrier.
+     *
+     * @param	numThreads	the number of threads that must call
+     *				<tt>await()</tt> before any of them return.
+     */
+    public Barrier(int numThreads) {
+	Lib.assertTrue(numThreads > 0);
+
+	this.numThreads = numThreads;
+    }
+
+    /**
+     * Atomically wait until <i>numThreads</i> threads, including this one,
+     * have called this method since the barrier was last released.
+     *
+     * @return	the order in which this thread arrived, from 0 for the first
+     *		thread to <i>numThreads</i>-1 for the thread that released the
+     *		others.
+     */
+    public int await() {
+	boolean intStatus = Machine.interrupt().disable();
+
+	int arrival = numArrived;
+
+	if (++numArrived < numThreads) {
+	    waitQueue.waitForAccess(KThread.currentThread());
+	    KThread.sleep();
+	}
+	else {
+	    // the threads woken here return without looking at numArrived
+	    numArrived = 0;
+
+	    KThread thread;
+	    while ((thread = waitQueue.nextThread()) != null)
+		thread.ready();
+	}
+
+	Machine.interrupt().restore(intStatus);
+
+	return arrival;
+    }
+
+    /**
+     * Test if this module is working.
+     */
+    public static void selfTest() {
+	final Barrier barrier = new Barrier(3);
+	final int[] phase = new int[3];
+	final Semaphore done = new Semaphore(0);
+
+	for (int i=0; i<2; i++) {
+	    final int id = i;
+	    new KThread(new Runnable() {
+		    public void run() {
+			for (int j=0; j<5; j++) {
+			    phase[id] = j;
+			    barrier.await();
+			}
+			done.V();
+		    }
+		}).setName("barrier " + i).fork();
+	}
+
+	for (int j=0; j<5; j++) {
+	    phase[2] = j;
+	    barrier.await();
+	    // everyone has reached phase j
+	    Lib.assertTrue(phase[0] >= j && phase[1] >= j);
+	}
+
+	done.P();
+	done.P();
+    }
+
+    private int numThreads;
+    private int numArrived = 0;
+    private ThreadQueue waitQueue =
+	ThreadedKernel.scheduler.newThreadQueue(false);
+}
@@ -0,0 +1,254 @@
+package nachos.threads;
+
+import nachos.machine.*;
+
+/**
+ * A <i>bounded communicator</i> passes 32-bit words from speakers to
+ * listeners through a ring buffer of fixed capacity. Unlike a
+ * <tt>Communicator</tt>, a speaker does not wait for a listener; it only waits
+ * while the buffer is full, and a listener only waits while it is empty.
+ *
+ * <p>
+ * Words can be transferred one at a time or in batches from and to
+ * <tt>int</tt> arrays. A batch is copied as far as the buffer allows before
+ * the caller has to wait, so passing <i>n</i> words costs roughly
+ * <i>n</i>/<i>capacity</i> context switches rather than <i>n</i>. No objects
+ * are allocated per transfer.
+ *
+ * <p>
+ * Each transfer wakes at most one waiting thread on the other side. A woken
+ * thread that leaves words or space behind wakes the next thread waiting on
+ * its own side, so no wakeup is lost.
+ *
+ * @see	nachos.threads.Communicator
+ */
+public class BoundedCommunicator {
+    /**
+     * Allocate a new bounded communicator.
+     *
+     * @param	capacity	the number of words the buffer can hold.
+     */
+    public BoundedCommunicator(int capacity) {
+	Lib.assertTrue(capacity > 0);
+
+	buffer = new int[capacity];
+    }
+
+    /**
+     * Wait until there is room in the buffer, and then add <i>word</i> to it.
+     *
+     * @param	word	the integer to transfer.
+     */
+    public void speak(int word) {
+	boolean intStatus = Machine.interrupt().disable();
+
+	waitForSpace();
+
+	buffer[(head + count) % buffer.length] = word;
+	count++;
+
+	wakeOne(listenerQueue);
+	if (count < buffer.length)
+	    wakeOne(speakerQueue);
+
+	Machine.interrupt().restore(intStatus);
+    }
+
+    /**
+     * Add <i>length</i> words from <i>words</i>, starting at <i>offset</i>, to
+     * the buffer, waiting for room whenever it is full. The words are received
+     * in order, but words from other speakers may be interleaved with them.
+     *
+     * @param	words	the array containing the words to transfer.
+     * @param	offset	the index of the first word to transfer.
+     * @param	length	the number of words to transfer.
+     */
+    public void speak(int[] words, int offset, int length) {
+	Lib.assertTrue(offset >= 0 && length >= 0 &&
+		       offset+length <= words.length);
+
+	boolean intStatus = Machine.interrupt().disable();
+
+	while (length > 0) {
+	    waitForSpace();
+
+	    int amount = Math.min(length, buffer.length - count);
+	    int tail = (head + count) % buffer.length;
+	    int first = Math.min(amount, buffer.length - tail);
+
+	    System.arraycopy(words, offset, buffer, tail, first);
+	    System.arraycopy(words, offset+first, buffer, 0, amount-first);
+
+	    count += amount;
+	    offset += amount;
+	    length -= amount;
+
+	    wakeOne(listenerQueue);
+	}
+
+	if (count < buffer.length)
+	    wakeOne(speakerQueue);
+
+	Machine.interrupt().restore(intStatus);
+    }
+
+    /**
+     * Wait until the buffer is not empty, and then remove and return the
+     * oldest word in it.
+     *
+     * @return	the integer transferred.
+     */
+    public int listen() {
+	boolean intStatus = Machine.interrupt().disable();
+
+	waitForWords();
+
+	int word = buffer[head];
+	head = (head + 1) % buffer.length;
+	count--;
+
+	wakeOne(speakerQueue);
+	if (count > 0)
+	    wakeOne(listenerQueue);
+
+	Machine.interrupt().restore(intStatus);
+
+	return word;
+    }
+
+    /**
+     * Wait until the buffer is not empty, and then move up to <i>length</i> of
+     * the oldest words in it to <i>words</i>, starting at <i>offset</i>. Does
+     * not wait for more words once some have been received.
+     *
+     * @param	words	the array to receive the words.
+     * @param	offset	the index at which to store the first word.
+     * @param	length	the maximum number of words to receive. Must be
+     *			positive.
+     * @return	the number of words received, which is at least one.
+     */
+    public int listen(int[] words, int offset, int length) {
+	Lib.assertTrue(offset >= 0 && length > 0 &&
+		       offset+length <= words.length);
+
+	boolean intStatus = Machine.interrupt().disable();
+
+	waitForWords();
+
+	int amount = Math.min(length, count);
+	int first = Math.min(amount, buffer.length - head);
+
+	System.arraycopy(buffer, head, words, offset, first);
+	System.arraycopy(buffer, 0, words, offset+first, amount-first);
+
+	head = (head + amount) % buffer.length;
+	count -= amount;
+
+	wakeOne(speakerQueue);
+	if (count > 0)
+	    wakeOne(listenerQueue);
+
+	Machine.interrupt().restore(intStatus);
+
+	return amount;
+    }
+
+    private void waitForSpace() {
+	while (count == buffer.length) {
+	    speakerQueue.waitForAccess(KThread.currentThread());
+	    KThread.sleep();
+	}
+    }
+
+    private void waitForWords() {
+	while (count == 0) {
+	    listenerQueue.waitForAccess(KThread.currentThread());
+	    KThread.sleep();
+	}
+    }
+
+    private static void wakeOne(ThreadQueue queue) {
+	KThread thread = queue.nextThread();
+	if (thread != null)
+	    thread.ready();
+    }
+
+    private static class Listener implements Runnable {
+	Listener(BoundedCommunicator com, int count, Semaphore done) {
+	    this.com = com;
+	    this.count = count;
+	    this.done = done;
+	}
+
+	public void run() {
+	    int[] words = new int[7];
+	    int received = 0;
+
+	    // alternate between single words and batches
+	    while (received < count) {
+		if (received % 2 == 0) {
+		    check(com.listen());
+		    received++;
+		}
+		else {
+		    int amount =
+			com.listen(words, 0, Math.min(words.length,
+						       count-received));
+		    for (int i=0; i<amount; i++)
+			check(words[i]);
+		    received += amount;
+		}
+	    }
+
+	    done.V();
+	}
+
+	private void check(int word) {
+	    // words from one speaker arrive in order
+	    int speaker = (word < count/2 ? 0 : 1);
+	    Lib.assertTrue(word > last[speaker]);
+	    last[speaker] = word;
+	}
+
+	private BoundedCommunicator com;
+	private int count;
+	private Semaphore done;
+	private int[] last = { -1, -1 };
+    }
+
+    /**
+     * Test if this module is working.
+     */
+    public static void selfTest() {
+	final BoundedCommunicator com = new BoundedCommunicator(5);
+	final int count = 100;
+	Semaphore done = new Semaphore(0);
+
+	// one listener, so it sees every word from both speakers
+	new KThread(new Listener(com, 2*count, done)).setName("listener").fork();
+
+	new KThread(new Runnable() {
+		public void run() {
+		    for (int i=0; i<count; i++)
+			com.speak(count + i);
+		}
+	    }).setName("speaker").fork();
+
+	int[] words = new int[count];
+	for (int i=0; i<count; i++)
+	    words[i] = i;
+	com.speak(words, 0, 13);
+	com.speak(words, 13, count-13);
+
+	done.P();
+    }
+
+    private int[] buffer;
+    private int head = 0;
+    private int count = 0;
+
+    private ThreadQueue speakerQueue =
+	ThreadedKernel.scheduler.newThreadQueue(false);
+    private ThreadQueue listenerQueue =
+	ThreadedKernel.scheduler.newThreadQueue(false);
+}
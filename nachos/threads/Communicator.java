@@ -8,6 +8,12 @@ import nachos.machine.*;
  * and multiple threads can be waiting to <i>listen</i>. But there should never
  * be a time when both a speaker and a listener are waiting, because the two
  * threads can be paired off at this point.
+ *
+ * <p>
+ * Every transfer costs a context switch in each direction. To pass many words
+ * between threads, use a <tt>BoundedCommunicator</tt> instead.
+ *
+ * @see	nachos.threads.BoundedCommunicator
  */
 public class Communicator {
     /**
@@ -27,6 +33,26 @@ public class Communicator {
      * @param	word	the integer to transfer.
      */
     public void speak(int word) {
+	boolean intStatus = Machine.interrupt().disable();
+
+	// wait for the previous word to be picked up
+	while (full) {
+	    speakerQueue.waitForAccess(KThread.currentThread());
+	    KThread.sleep();
+	}
+
+	this.word = word;
+	full = true;
+
+	KThread listener = listenerQueue.nextThread();
+	if (listener != null)
+	    listener.ready();
+
+	// the listener that takes the word wakes us up
+	pairedQueue.waitForAccess(KThread.currentThread());
+	KThread.sleep();
+
+	Machine.interrupt().restore(intStatus);
     }
 
     /**
@@ -36,6 +62,78 @@ public class Communicator {
      * @return	the integer transferred.
      */    
     public int listen() {
-	return 0;
+	boolean intStatus = Machine.interrupt().disable();
+
+	while (!full) {
+	    listenerQueue.waitForAccess(KThread.currentThread());
+	    KThread.sleep();
+	}
+
+	int word = this.word;
+	full = false;
+
+	pairedQueue.nextThread().ready();
+
+	KThread speaker = speakerQueue.nextThread();
+	if (speaker != null)
+	    speaker.ready();
+
+	Machine.interrupt().restore(intStatus);
+
+	return word;
     }
+
+    private static class Listener implements Runnable {
+	Listener(Communicator com, int count, Semaphore done) {
+	    this.com = com;
+	    this.count = count;
+	    this.done = done;
+	}
+
+	public void run() {
+	    for (int i=0; i<count; i++)
+		sum += com.listen();
+	    done.V();
+	}
+
+	private Communicator com;
+	private int count;
+	private Semaphore done;
+	private int sum = 0;
+    }
+
+    /**
+     * Test if this module is working.
+     */
+    public static void selfTest() {
+	Communicator com = new Communicator();
+	Semaphore done = new Semaphore(0);
+
+	Listener[] listeners = new Listener[3];
+	for (int i=0; i<listeners.length; i++) {
+	    listeners[i] = new Listener(com, 10, done);
+	    new KThread(listeners[i]).setName("listener " + i).fork();
+	}
+
+	for (int i=0; i<30; i++)
+	    com.speak(i);
+
+	int sum = 0;
+	for (int i=0; i<listeners.length; i++) {
+	    done.P();
+	    sum += listeners[i].sum;
+	}
+
+	Lib.assertTrue(sum == 29*30/2);
+    }
+
+    private int word;
+    private boolean full = false;
+
+    private ThreadQueue speakerQueue =
+	ThreadedKernel.scheduler.newThreadQueue(false);
+    private ThreadQueue listenerQueue =
+	ThreadedKernel.scheduler.newThreadQueue(false);
+    private ThreadQueue pairedQueue =
+	ThreadedKernel.scheduler.newThreadQueue(false);
 }
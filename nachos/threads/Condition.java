@@ -79,11 +79,17 @@ public class Condition {
     public void sleep() { //conditionLock   Ȯϰ
 		Lib.assertTrue(conditionLock.isHeldByCurrentThread());
 	
-		Semaphore waiter = new Semaphore(0); // 
+		//  condition 
+		Semaphore waiter = new Semaphore(0, null); // 
 		waitQueue.add(waiter); // ť ߰
+
+		long waitStart =
+		    (stats != null ? stats.beginWait(waitQueue.size()) : 0);
 	
 		conditionLock.release(); //Ű ݳ
 		waiter.P(); // ش  0 ƴϰ   wait
+		if (stats != null)
+		    stats.endWait(waitStart);
 		conditionLock.acquire(); //Ű 
     }
 
@@ -109,6 +115,18 @@ public class Condition {
 	    wake();
     }
 
+    /**
+     * Name this condition variable, as described in <tt>ContentionStats</tt>.
+     *
+     * @param	name	the name, or <tt>null</tt>.
+     * @return	this condition variable.
+     */
+    public Condition setName(String name) {
+	stats = ContentionStats.forName(name);
+	return this;
+    }
+
     private Lock conditionLock;
     private LinkedList<Semaphore> waitQueue;
+    private ContentionStats stats = ContentionStats.forName("Condition");
 }
@@ -1,7 +1,5 @@
 package nachos.threads;
 
-import java.util.ArrayList;
-
 import nachos.machine.*;
 
 /**
@@ -35,11 +33,16 @@ public class Condition2 {
     public void sleep() { //Ű ݳϰ wake() ߻  sleep  
         Lib.assertTrue(conditionLock.isHeldByCurrentThread()); //  带
 
-        conditionLock.release();
-
         boolean intStatus = Machine.interrupt().disable(); //ͷƮ Ƶΰ
-        waitQueue.add(KThread.currentThread());// ť ޾Ƴ
-        KThread.currentThread().sleep();//sleep · 
+        conditionLock.release(); // Ű ݳϰ   wake()  
+
+        long waitStart = (stats != null ? stats.beginWait(++numWaiting) : 0);
+        waitQueue.waitForAccess(KThread.currentThread());// ť ޾Ƴ
+        KThread.sleep();//sleep · 
+        if (stats != null) {
+            numWaiting--;
+            stats.endWait(waitStart);
+        }
 
         conditionLock.acquire();
         Machine.interrupt().restore(intStatus);//ͷƮ 簳
@@ -53,8 +56,8 @@ public class Condition2 {
         Lib.assertTrue(conditionLock.isHeldByCurrentThread());
 
         boolean intStatus = Machine.interrupt().disable(); //ͷƮ Ƶΰ
-        if(!waitQueue.isEmpty()) {//  ť 尡 
-            KThread thread = (KThread)waitQueue.get(0);// ϳ 
+        KThread thread = waitQueue.nextThread();//  ť ϳ 
+        if (thread != null) {
             thread.ready();//ready · 
         }
         Machine.interrupt().restore(intStatus);//ͷƮ 簳
@@ -66,12 +69,27 @@ public class Condition2 {
      */
     public void wakeAll() {
         Lib.assertTrue(conditionLock.isHeldByCurrentThread());
-        while(!waitQueue.isEmpty()){// ť 尡   wake Ű
-            wake();
+
+        boolean intStatus = Machine.interrupt().disable();
+        KThread thread;
+        while ((thread = waitQueue.nextThread()) != null) {// ť    ready ·
+            thread.ready();
         }
+        Machine.interrupt().restore(intStatus);
 
     }
 
+    /**
+     * Name this condition variable, as described in <tt>ContentionStats</tt>.
+     *
+     * @param	name	the name, or <tt>null</tt>.
+     * @return	this condition variable.
+     */
+    public Condition2 setName(String name) {
+        stats = ContentionStats.forName(name);
+        return this;
+    }
+
     // Place Condition2 testing code in the Condition2 class.
 
     // Example of the "interlock" pattern where two threads strictly
@@ -127,5 +145,8 @@ public class Condition2 {
     }
 
     private Lock conditionLock;
-    private ArrayList waitQueue = new ArrayList();
+    private ThreadQueue waitQueue =
+        ThreadedKernel.scheduler.newThreadQueue(false);
+    private ContentionStats stats = ContentionStats.forName("Condition2");
+    private int numWaiting = 0;
 }
@@ -0,0 +1,147 @@
+package nachos.threads;
+
+import nachos.machine.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+
+/**
+ * Counts how often the synchronization primitives in this package are
+ * acquired, how often a thread has to wait for one, how long it waits, and how
+ * many threads wait at once. There is one set of counts for each name, so all
+ * the primitives given the same name are counted together, and primitives that
+ * are never given a name are counted under their class name.
+ *
+ * <p>
+ * Each primitive has a <tt>setName()</tt> method that returns the primitive,
+ * so it can be named where it is allocated, for example
+ * <tt>new Lock().setName("PostOffice.sendLock")</tt>. Naming a primitive
+ * <tt>null</tt> stops it being counted at all, which is useful for
+ * short-lived primitives that would otherwise crowd the report.
+ *
+ * <p>
+ * Counting is only done if <tt>ContentionStats.enabled</tt> is true, in which
+ * case <tt>ThreadedKernel.terminate()</tt> prints a report. Otherwise
+ * <tt>forName()</tt> returns <tt>null</tt>, and the primitives do no extra
+ * work.
+ */
+public class ContentionStats {
+    /**
+     * Return the counts for the specified name, creating them if necessary.
+     *
+     * @param	name	the name of a primitive, or of a group of primitives,
+     *			or <tt>null</tt> for none.
+     * @return	the counts for <i>name</i>, or <tt>null</tt> if <i>name</i> is
+     *		<tt>null</tt> or counting is disabled.
+     */
+    public static ContentionStats forName(String name) {
+	if (name == null || !isEnabled())
+	    return null;
+
+	ContentionStats stats = registry.get(name);
+	if (stats == null) {
+	    stats = new ContentionStats(name);
+	    registry.put(name, stats);
+	}
+
+	return stats;
+    }
+
+    /**
+     * Test whether counting is enabled.
+     *
+     * @return	<tt>true</tt> if <tt>ContentionStats.enabled</tt> is set.
+     */
+    public static boolean isEnabled() {
+	if (!configured) {
+	    enabled = Config.getBoolean("ContentionStats.enabled", false);
+	    configured = true;
+	}
+
+	return enabled;
+    }
+
+    private ContentionStats(String name) {
+	this.name = name;
+    }
+
+    /**
+     * Record that a thread got the primitive without waiting.
+     */
+    public void acquired() {
+	numAcquires++;
+    }
+
+    /**
+     * Record that a thread has to wait for the primitive.
+     *
+     * @param	numWaiting	the number of threads waiting, including this
+     *				one.
+     * @return	the time the wait began, to pass to <tt>endWait()</tt>.
+     */
+    public long beginWait(int numWaiting) {
+	numAcquires++;
+	numContended++;
+	if (numWaiting > maxWaiting)
+	    maxWaiting = numWaiting;
+
+	return Machine.timer().getTime();
+    }
+
+    /**
+     * Record that a thread has finished waiting for the primitive.
+     *
+     * @param	startTime	the value <tt>beginWait()</tt> returned.
+     */
+    public void endWait(long startTime) {
+	long ticks = Machine.timer().getTime() - startTime;
+
+	waitTicks += ticks;
+	if (ticks > maxWaitTicks)
+	    maxWaitTicks = ticks;
+    }
+
+    /**
+     * Print the counts for every name, longest total wait first. Does nothing
+     * if counting is disabled.
+     */
+    public static void print() {
+	if (!isEnabled())
+	    return;
+
+	ArrayList<ContentionStats> all =
+	    new ArrayList<ContentionStats>(registry.values());
+	Collections.sort(all, new Comparator<ContentionStats>() {
+		public int compare(ContentionStats a, ContentionStats b) {
+		    if (a.waitTicks != b.waitTicks)
+			return (a.waitTicks > b.waitTicks ? -1 : 1);
+		    return a.name.compareTo(b.name);
+		}
+	    });
+
+	System.out.println("Contention: " + all.size() + " primitives");
+	for (int i=0; i<all.size(); i++) {
+	    ContentionStats stats = all.get(i);
+	    System.out.println("  " + stats.name
+			       + ": acquires " + stats.numAcquires
+			       + ", contended " + stats.numContended
+			       + ", wait ticks " + stats.waitTicks
+			       + " (max " + stats.maxWaitTicks + ")"
+			       + ", max waiting " + stats.maxWaiting);
+	}
+    }
+
+    private String name;
+    private long numAcquires = 0;
+    private long numContended = 0;
+    private long waitTicks = 0;
+    private long maxWaitTicks = 0;
+    private int maxWaiting = 0;
+
+    private static boolean configured = false;
+    private static boolean enabled;
+    private static HashMap<String, ContentionStats> registry =
+	new HashMap<String, ContentionStats>();
+}
@@ -0,0 +1,96 @@
+package nachos.threads;
+
+import nachos.machine.*;
+
+/**
+ * A <tt>CountDownLatch</tt> lets threads wait until a count, set when the
+ * latch is created, has been counted down to zero. Once the count reaches
+ * zero, it stays there, and <tt>await()</tt> returns immediately.
+ */
+public class CountDownLatch {
+    /**
+     * Allocate a new latch.
+     *
+     * @param	count	the number of times <tt>countDown()</tt> must be called
+     *			before waiting threads are released.
+     */
+    public CountDownLatch(int count) {
+	Lib.assertTrue(count >= 0);
+
+	this.count = count;
+    }
+
+    /**
+     * Atomically wait until the count of this latch is zero.
+     */
+    public void await() {
+	boolean intStatus = Machine.interrupt().disable();
+
+	if (count > 0) {
+	    waitQueue.waitForAccess(KThread.currentThread());
+	    KThread.sleep();
+	}
+
+	Machine.interrupt().restore(intStatus);
+    }
+
+    /**
+     * Atomically decrement the count of this latch, unless it is already
+     * zero. If it reaches zero, wake up every thread waiting in
+     * <tt>await()</tt>.
+     */
+    public void countDown() {
+	boolean intStatus = Machine.interrupt().disable();
+
+	if (count > 0 && --count == 0) {
+	    KThread thread;
+	    while ((thread = waitQueue.nextThread()) != null)
+		thread.ready();
+	}
+
+	Machine.interrupt().restore(intStatus);
+    }
+
+    /**
+     * Return the current count of this latch.
+     *
+     * @return	the number of <tt>countDown()</tt> calls still needed.
+     */
+    public int getCount() {
+	return count;
+    }
+
+    /**
+     * Test if this module is working.
+     */
+    public static void selfTest() {
+	final CountDownLatch start = new CountDownLatch(1);
+	final CountDownLatch finished = new CountDownLatch(3);
+	final int[] numStarted = new int[1];
+
+	for (int i=0; i<3; i++) {
+	    new KThread(new Runnable() {
+		    public void run() {
+			start.await();
+			numStarted[0]++;
+			finished.countDown();
+		    }
+		}).setName("waiter " + i).fork();
+	}
+
+	KThread.yield();
+	Lib.assertTrue(numStarted[0] == 0);
+
+	start.countDown();
+	finished.await();
+	Lib.assertTrue(numStarted[0] == 3 && finished.getCount() == 0);
+
+	// the count stays at zero
+	finished.countDown();
+	finished.await();
+    }
+
+    private int count;
+    private ThreadQueue waitQueue =
+	ThreadedKernel.scheduler.newThreadQueue(false);
+}
@@ -52,6 +52,9 @@ public class KThread {
 	    readyQueue = ThreadedKernel.scheduler.newThreadQueue(false);
 	    readyQueue.acquire(this);	
 
+	    idleFastForward = Config.getBoolean("KThread.idleFastForward",
+						false);
+
 	    currentThread = this;
 	    tcb = TCB.currentTCB();
 	    name = "main";
@@ -308,12 +311,21 @@ public class KThread {
     /**
      * Determine the next thread to run, then dispatch the CPU to the thread
      * using <tt>run()</tt>.
+     *
+     * <p>
+     * If no thread is ready and <tt>KThread.idleFastForward</tt> is set, the
+     * simulated time the idle thread would spend yielding is skipped using
+     * <tt>Interrupt.idle()</tt>.
      */
     private static void runNextThread() {
 	KThread nextThread = readyQueue.nextThread();
-	if (nextThread == null)
+	if (nextThread == null) {
 	    nextThread = idleThread;
 
+	    if (idleFastForward)
+		Machine.interrupt().idle();
+	}
+
 	nextThread.run();
     }
 
@@ -526,4 +538,5 @@ public class KThread {
     private static KThread currentThread = null;
     private static KThread toBeDestroyed = null;
     private static KThread idleThread = null;
+    private static boolean idleFastForward = false;
 }
@@ -37,10 +37,18 @@ public class Lock {
 	KThread thread = KThread.currentThread(); // 带 Ƽ
 
 	if (lockHolder != null) { //Lock    ʴٸ
+	    long waitStart =
+		(stats != null ? stats.beginWait(++numWaiting) : 0);
 	    waitQueue.waitForAccess(thread); // waitqueue   ٸ ޾Ƴ
 	    KThread.sleep(); // 带  -  带  ?
+	    if (stats != null) {
+		numWaiting--;
+		stats.endWait(waitStart);
+	    }
 	}
 	else {
+	    if (stats != null)
+		stats.acquired();
 	    waitQueue.acquire(thread); //Lock   ִٸ
 	    lockHolder = thread;//ش 尡 Lock  ش.
 	}
@@ -64,6 +72,17 @@ public class Lock {
 	Machine.interrupt().restore(intStatus);
     }
 
+    /**
+     * Name this lock, as described in <tt>ContentionStats</tt>.
+     *
+     * @param	name	the name, or <tt>null</tt>.
+     * @return	this lock.
+     */
+    public Lock setName(String name) {
+	stats = ContentionStats.forName(name);
+	return this;
+    }
+
     /**
      * Test if the current thread holds this lock.
      *
@@ -74,6 +93,8 @@ public class Lock {
     }
 
     private KThread lockHolder = null;
+    private ContentionStats stats = ContentionStats.forName("Lock");
+    private int numWaiting = 0;
     private ThreadQueue waitQueue =
 	ThreadedKernel.scheduler.newThreadQueue(true);
 }
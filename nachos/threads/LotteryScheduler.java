@@ -25,6 +25,13 @@ import java.util.Iterator;
  * particular, tickets must be transferred through locks, and through joins.
  * Unlike a priority scheduler, these tickets add (as opposed to just taking
  * the maximum).
+ *
+ * <p>
+ * Each queue keeps the effective ticket counts of its waiting threads in a
+ * Fenwick (binary indexed) tree, so both drawing the winning ticket and
+ * changing one thread's tickets take O(log n) time. A change in a thread's
+ * tickets is passed on as a difference: to the queue it waits in, then to
+ * that queue's owner, and so on along the chain.
  */
 public class LotteryScheduler extends PriorityScheduler {
     /**
@@ -42,7 +49,383 @@ public class LotteryScheduler extends PriorityScheduler {
      * @return	a new lottery thread queue.
      */
     public ThreadQueue newThreadQueue(boolean transferPriority) {
-	// implement me
-	return null;
+	return new LotteryQueue(transferPriority);
+    }
+
+    public int getPriority(KThread thread) {
+	Lib.assertTrue(Machine.interrupt().disabled());
+		       
+	return getLotteryState(thread).tickets;
+    }
+
+    public int getEffectivePriority(KThread thread) {
+	Lib.assertTrue(Machine.interrupt().disabled());
+
+	long tickets = getLotteryState(thread).effectiveTickets;
+	return (int) Math.min(tickets, Integer.MAX_VALUE);
+    }
+
+    public void setPriority(KThread thread, int priority) {
+	Lib.assertTrue(Machine.interrupt().disabled());
+		       
+	Lib.assertTrue(priority >= priorityMinimum &&
+		   priority <= priorityMaximum);
+	
+	LotteryState state = getLotteryState(thread);
+	int delta = priority - state.tickets;
+
+	state.tickets = priority;
+	transfer(state, delta);
+    }
+
+    public boolean increasePriority() {
+	boolean intStatus = Machine.interrupt().disable();
+		       
+	KThread thread = KThread.currentThread();
+
+	int priority = getPriority(thread);
+	boolean changed = (priority != priorityMaximum);
+	if (changed)
+	    setPriority(thread, priority+1);
+
+	Machine.interrupt().restore(intStatus);
+	return changed;
+    }
+
+    public boolean decreasePriority() {
+	boolean intStatus = Machine.interrupt().disable();
+		       
+	KThread thread = KThread.currentThread();
+
+	int priority = getPriority(thread);
+	boolean changed = (priority != priorityMinimum);
+	if (changed)
+	    setPriority(thread, priority-1);
+
+	Machine.interrupt().restore(intStatus);
+	return changed;
+    }
+
+    /**
+     * Test that threads win in proportion to their tickets, and that tickets
+     * are added up along a chain of owners and withdrawn again. The threads
+     * are never forked; they only wait in queues of a private scheduler.
+     */
+    public static void selfTest() {
+	LotteryScheduler s = new LotteryScheduler();
+	boolean intStatus = Machine.interrupt().disable();
+
+	KThread a = new KThread(null).setName("a");
+	KThread b = new KThread(null).setName("b");
+	KThread c = new KThread(null).setName("c");
+
+	// b holds three times as many tickets as a
+	ThreadQueue q = s.newThreadQueue(false);
+	s.setPriority(b, 3);
+	q.waitForAccess(a);
+	q.waitForAccess(b);
+
+	int bWins = 0;
+	for (int i=0; i<4000; i++) {
+	    KThread winner = q.nextThread();
+	    if (winner == b)
+		bWins++;
+	    q.waitForAccess(winner);
+	}
+	Lib.assertTrue(bWins > 2800 && bWins < 3200);
+
+	q.nextThread();
+	q.nextThread();
+	Lib.assertTrue(q.nextThread() == null);
+
+	// c waits on a lock held by b, while b waits on a lock held by a
+	ThreadQueue lock1 = s.newThreadQueue(true);
+	ThreadQueue lock2 = s.newThreadQueue(true);
+	lock1.acquire(a);
+	lock2.acquire(b);
+	lock1.waitForAccess(b);
+	lock2.waitForAccess(c);
+
+	s.setPriority(c, 5);
+	Lib.assertTrue(s.getEffectivePriority(b) == 3+5);
+	Lib.assertTrue(s.getEffectivePriority(a) == 1+3+5);
+
+	// a releases lock1 to b, so only b still holds c's tickets
+	Lib.assertTrue(lock1.nextThread() == b);
+	Lib.assertTrue(s.getEffectivePriority(a) == 1);
+	Lib.assertTrue(s.getEffectivePriority(b) == 3+5);
+
+	Lib.assertTrue(lock2.nextThread() == c);
+	Lib.assertTrue(s.getEffectivePriority(b) == 3);
+
+	Machine.interrupt().restore(intStatus);
+    }
+
+    /**
+     * The default number of tickets for a new thread.
+     */
+    public static final int priorityDefault = 1;
+    /**
+     * The minimum number of tickets that a thread can have.
+     */
+    public static final int priorityMinimum = 1;
+    /**
+     * The maximum number of tickets that a thread can have.
+     */
+    public static final int priorityMaximum = Integer.MAX_VALUE;
+
+    /**
+     * Return the lottery state of the specified thread.
+     *
+     * @param	thread	the thread whose lottery state to return.
+     * @return	the lottery state of the specified thread.
+     */
+    protected LotteryState getLotteryState(KThread thread) {
+	if (thread.schedulingState == null)
+	    thread.schedulingState = new LotteryState(thread);
+
+	return (LotteryState) thread.schedulingState;
+    }
+
+    /**
+     * Add <i>delta</i> tickets to the effective tickets of <i>state</i>, and
+     * pass the change on to the queue it is waiting in, that queue's owner,
+     * and so on. Stops if the chain leads back to a thread it has already
+     * visited, which can only happen if the threads are deadlocked.
+     */
+    private void transfer(LotteryState state, long delta) {
+	int visit = ++numTransfers;
+
+	while (state != null && delta != 0 && state.lastTransfer != visit) {
+	    state.lastTransfer = visit;
+	    state.effectiveTickets += delta;
+
+	    LotteryQueue waitQueue = state.waitQueue;
+	    if (waitQueue == null)
+		break;
+
+	    waitQueue.adjust(state, delta);
+
+	    if (!waitQueue.transferPriority)
+		break;
+	    state = waitQueue.owner;
+	}
+    }
+
+    private int numTransfers = 0;
+
+    /**
+     * A <tt>ThreadQueue</tt> that picks threads by lottery.
+     */
+    protected class LotteryQueue extends ThreadQueue {
+	LotteryQueue(boolean transferPriority) {
+	    this.transferPriority = transferPriority;
+
+	    slots = new LotteryState[8];
+	    tree = new long[slots.length+1];
+	    freeSlots = new int[slots.length];
+	}
+
+	public void waitForAccess(KThread thread) {
+	    Lib.assertTrue(Machine.interrupt().disabled());
+
+	    LotteryState state = getLotteryState(thread);
+	    Lib.assertTrue(state.waitQueue == null);
+
+	    add(state);
+	}
+
+	public void acquire(KThread thread) {
+	    Lib.assertTrue(Machine.interrupt().disabled());
+
+	    LotteryState state = getLotteryState(thread);
+	    if (state.waitQueue == this)
+		remove(state);
+
+	    setOwner(state);
+	}
+
+	public KThread nextThread() {
+	    Lib.assertTrue(Machine.interrupt().disabled());
+
+	    LotteryState winner = pickNextThread();
+	    if (winner == null) {
+		setOwner(null);
+		return null;
+	    }
+
+	    remove(winner);
+	    setOwner(winner);
+	    return winner.thread;
+	}
+
+	/**
+	 * Hold a lottery among the waiting threads, without removing the
+	 * winner.
+	 *
+	 * @return	the winning thread's state, or <tt>null</tt> if no
+	 *		threads are waiting.
+	 */
+	protected LotteryState pickNextThread() {
+	    if (totalTickets == 0)
+		return null;
+
+	    long ticket = (long) (Lib.random() * totalTickets);
+	    if (ticket >= totalTickets)
+		ticket = totalTickets-1;
+
+	    // find the first slot whose prefix sum exceeds the ticket
+	    int index = 0;
+	    for (int step=Integer.highestOneBit(slots.length); step>0;
+		 step/=2) {
+		if (index+step <= slots.length && tree[index+step] <= ticket) {
+		    index += step;
+		    ticket -= tree[index];
+		}
+	    }
+
+	    return slots[index];
+	}
+	
+	public void print() {
+	    Lib.assertTrue(Machine.interrupt().disabled());
+
+	    for (int i=0; i<numSlots; i++) {
+		if (slots[i] != null) {
+		    System.out.print(slots[i].thread + " (" +
+				     slots[i].effectiveTickets + ") ");
+		}
+	    }
+	    System.out.println();
+	}
+
+	private void add(LotteryState state) {
+	    if (numFreeSlots == 0 && numSlots == slots.length)
+		grow();
+
+	    int slot = (numFreeSlots > 0 ? freeSlots[--numFreeSlots]
+			: numSlots++);
+
+	    slots[slot] = state;
+	    state.slot = slot;
+	    state.waitQueue = this;
+
+	    donate(state.effectiveTickets);
+	    adjust(state, state.effectiveTickets);
+	}
+
+	private void remove(LotteryState state) {
+	    long tickets = state.effectiveTickets;
+
+	    adjust(state, -tickets);
+	    slots[state.slot] = null;
+	    freeSlots[numFreeSlots++] = state.slot;
+	    state.waitQueue = null;
+
+	    donate(-tickets);
+	}
+
+	/**
+	 * Add <i>delta</i> to a waiting thread's entry in the tree. The caller
+	 * is responsible for passing the change on to the owner.
+	 */
+	void adjust(LotteryState state, long delta) {
+	    for (int i=state.slot+1; i<=slots.length; i+=(i & -i))
+		tree[i] += delta;
+
+	    totalTickets += delta;
+	}
+
+	private void setOwner(LotteryState state) {
+	    if (!transferPriority || owner == state)
+		return;
+
+	    if (owner != null)
+		transfer(owner, -totalTickets);
+	    owner = state;
+	    if (owner != null)
+		transfer(owner, totalTickets);
+	}
+
+	private void donate(long delta) {
+	    if (transferPriority && owner != null)
+		transfer(owner, delta);
+	}
+
+	/** Double the number of slots and rebuild the tree. */
+	private void grow() {
+	    LotteryState[] newSlots = new LotteryState[slots.length*2];
+	    System.arraycopy(slots, 0, newSlots, 0, slots.length);
+	    slots = newSlots;
+
+	    int[] newFreeSlots = new int[slots.length];
+	    System.arraycopy(freeSlots, 0, newFreeSlots, 0, numFreeSlots);
+	    freeSlots = newFreeSlots;
+
+	    tree = new long[slots.length+1];
+	    for (int i=1; i<=slots.length; i++) {
+		if (slots[i-1] != null)
+		    tree[i] += slots[i-1].effectiveTickets;
+
+		int parent = i + (i & -i);
+		if (parent <= slots.length)
+		    tree[parent] += tree[i];
+	    }
+	}
+
+	/**
+	 * <tt>true</tt> if this queue should transfer tickets from waiting
+	 * threads to the owning thread.
+	 */
+	public boolean transferPriority;
+
+	/** The thread that currently owns this queue, if it transfers. */
+	LotteryState owner = null;
+
+	/** The waiting threads, by slot. Unused slots are <tt>null</tt>. */
+	private LotteryState[] slots;
+	/** The number of slots that have ever been used. */
+	private int numSlots = 0;
+	/** Slots below <tt>numSlots</tt> that are not in use. */
+	private int[] freeSlots;
+	private int numFreeSlots = 0;
+	/** A Fenwick tree over the effective tickets in each slot. */
+	private long[] tree;
+	/** The sum of the effective tickets of the waiting threads. */
+	private long totalTickets = 0;
+    }
+
+    /**
+     * The lottery state of a thread.
+     *
+     * @see	nachos.threads.KThread#schedulingState
+     */
+    protected class LotteryState {
+	/**
+	 * Allocate a new <tt>LotteryState</tt> object and associate it with
+	 * the specified thread.
+	 *
+	 * @param	thread	the thread this state belongs to.
+	 */
+	public LotteryState(KThread thread) {
+	    this.thread = thread;
+	}
+
+	/** The thread with which this object is associated. */
+	protected KThread thread;
+	/** The tickets held by the associated thread. */
+	protected int tickets = priorityDefault;
+	/**
+	 * The tickets held by the associated thread, plus those transferred
+	 * to it through the queues it owns.
+	 */
+	protected long effectiveTickets = priorityDefault;
+
+	/** The queue the associated thread is waiting in, if any. */
+	LotteryQueue waitQueue = null;
+	/** The slot in <tt>waitQueue</tt> holding this thread. */
+	int slot;
+	/** The last call to <tt>transfer()</tt> that visited this thread. */
+	int lastTransfer = 0;
     }
 }
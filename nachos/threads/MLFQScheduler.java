@@ -0,0 +1,388 @@
+package nachos.threads;
+
+import nachos.machine.*;
+
+import java.util.LinkedList;
+import java.util.Iterator;
+import java.util.ListIterator;
+
+/**
+ * A multi-level feedback queue scheduler. Threads are kept at one of several
+ * levels, and a queue always gives access to the thread that has been waiting
+ * longest at the highest level (level 0).
+ *
+ * <p>
+ * A thread's level is adjusted according to how it uses the CPU:
+ * <ul>
+ * <li>The time a thread runs is charged to it when it next waits in a queue,
+ * which is when the timer interrupt makes it yield or when it blocks. Once a
+ * thread has been charged a full quantum at its level,
+ * <tt>Stats.TimerTicks</tt> times 2<sup>level</sup>, it moves down a level.
+ * <li>A thread that is made ready by another thread, because it was blocked
+ * in a <tt>Semaphore</tt>, <tt>Lock</tt>, or similar, moves up a level.
+ * <li>Every <tt>MLFQScheduler.agingPeriod</tt> ticks, every thread is moved
+ * back to level 0, so that CPU-bound threads cannot starve.
+ * </ul>
+ *
+ * <p>
+ * The number of levels is set by <tt>MLFQScheduler.numLevels</tt>. The
+ * priority reported for a thread is <tt>numLevels-1</tt> at level 0, down to
+ * 0 at the lowest level.
+ */
+public class MLFQScheduler extends Scheduler {
+    /**
+     * Allocate a new multi-level feedback queue scheduler.
+     */
+    public MLFQScheduler() {
+	numLevels = Config.getInteger("MLFQScheduler.numLevels", 4);
+	agingPeriod = Config.getInteger("MLFQScheduler.agingPeriod",
+					50*Stats.TimerTicks);
+
+	Lib.assertTrue(numLevels > 0 && numLevels < 31 && agingPeriod > 0);
+    }
+
+    /**
+     * Allocate a new multi-level thread queue.
+     *
+     * @param	transferPriority	ignored. Threads are only ordered by
+     *					their level.
+     * @return	a new multi-level thread queue.
+     */
+    public ThreadQueue newThreadQueue(boolean transferPriority) {
+	return new MultiLevelQueue();
+    }
+
+    public int getPriority(KThread thread) {
+	Lib.assertTrue(Machine.interrupt().disabled());
+
+	return numLevels-1 - getLevelState(thread).getLevel();
+    }
+
+    public int getEffectivePriority(KThread thread) {
+	return getPriority(thread);
+    }
+
+    public void setPriority(KThread thread, int priority) {
+	Lib.assertTrue(Machine.interrupt().disabled());
+
+	Lib.assertTrue(priority >= 0 && priority < numLevels);
+
+	LevelState state = getLevelState(thread);
+	state.getLevel();	// catch up with aging first
+	state.level = numLevels-1 - priority;
+	state.usedTicks = 0;
+
+	if (state.waitQueue != null)
+	    state.waitQueue.requeue(state);
+    }
+
+    /**
+     * Test that a thread that uses up its quantum moves down a level, that a
+     * thread woken by another thread moves up, that threads at the same
+     * level are served in order, and that setting the priority of a waiting
+     * thread moves it. The threads are never forked; they only
+     * wait in a queue of a private scheduler, which needs at least three
+     * levels.
+     */
+    public static void selfTest() {
+	MLFQScheduler s = new MLFQScheduler();
+	Lib.assertTrue(s.numLevels >= 3);
+
+	boolean intStatus = Machine.interrupt().disable();
+
+	KThread a = new KThread(null).setName("a");
+	KThread b = new KThread(null).setName("b");
+	KThread c = new KThread(null).setName("c");
+	ThreadQueue q = s.newThreadQueue(false);
+
+	// woken threads at level 0 stay there, in order
+	q.waitForAccess(a);
+	q.waitForAccess(b);
+	Lib.assertTrue(q.nextThread() == a);
+	Lib.assertTrue(q.nextThread() == b);
+
+	// a uses up its quanta at levels 0 and 1, so ends up at level 2
+	LevelState state = s.getLevelState(a);
+	state.runStart -= Stats.TimerTicks;
+	state.charge();
+	state.runStart -= 2*Stats.TimerTicks;
+	state.charge();
+	Lib.assertTrue(s.getPriority(a) == s.numLevels-3);
+
+	// waking threads moves each of them up one level
+	s.setPriority(b, s.numLevels-2);
+	s.setPriority(c, s.numLevels-2);
+	q.waitForAccess(a);
+	q.waitForAccess(b);
+	q.waitForAccess(c);
+	Lib.assertTrue(s.getPriority(a) == s.numLevels-2);
+	Lib.assertTrue(q.nextThread() == b);
+	Lib.assertTrue(q.nextThread() == c);
+	Lib.assertTrue(q.nextThread() == a);
+	Lib.assertTrue(q.nextThread() == null);
+
+	// raising the priority of a waiting thread moves it ahead
+	s.setPriority(b, s.numLevels-3);
+	s.setPriority(c, s.numLevels-3);
+	q.waitForAccess(b);
+	q.waitForAccess(c);
+	s.setPriority(c, s.numLevels-1);
+	Lib.assertTrue(q.nextThread() == c);
+	Lib.assertTrue(q.nextThread() == b);
+
+	Machine.interrupt().restore(intStatus);
+    }
+
+    /**
+     * Return the scheduling state of the specified thread.
+     *
+     * @param	thread	the thread whose scheduling state to return.
+     * @return	the scheduling state of the specified thread.
+     */
+    protected LevelState getLevelState(KThread thread) {
+	if (thread.schedulingState == null)
+	    thread.schedulingState = new LevelState(thread);
+
+	return (LevelState) thread.schedulingState;
+    }
+
+    /**
+     * Return the number of aging periods that have passed. All threads are
+     * moved to level 0 whenever this changes.
+     */
+    private long getAgingEpoch() {
+	return Machine.timer().getTime() / agingPeriod;
+    }
+
+    /**
+     * A <tt>ThreadQueue</tt> with a FIFO list for each level.
+     */
+    private class MultiLevelQueue extends ThreadQueue {
+	@SuppressWarnings("unchecked")
+	MultiLevelQueue() {
+	    lists = (LinkedList<LevelState>[]) new LinkedList<?>[numLevels];
+	    for (int i=0; i<numLevels; i++)
+		lists[i] = new LinkedList<LevelState>();
+
+	    epoch = getAgingEpoch();
+	}
+
+	/**
+	 * Add a thread to the end of the list for its level. If the thread is
+	 * the current thread, it is giving up the CPU, so the time it has run
+	 * is charged to it first. Otherwise it is being woken up by the
+	 * current thread, and moves up a level.
+	 *
+	 * @param	thread	the thread to append to the queue.
+	 */
+	public void waitForAccess(KThread thread) {
+	    Lib.assertTrue(Machine.interrupt().disabled());
+
+	    LevelState state = getLevelState(thread);
+
+	    if (thread == KThread.currentThread())
+		state.charge();
+	    else
+		state.boost();
+
+	    state.sequence = numWaited++;
+	    state.waitQueue = this;
+	    lists[state.getLevel()].add(state);
+	}
+
+	/**
+	 * Remove the first thread from the highest non-empty level.
+	 *
+	 * @return	the chosen thread, or <tt>null</tt> if the queue is empty.
+	 */
+	public KThread nextThread() {
+	    Lib.assertTrue(Machine.interrupt().disabled());
+
+	    age();
+
+	    for (int i=0; i<numLevels; i++) {
+		if (!lists[i].isEmpty()) {
+		    LevelState state = lists[i].removeFirst();
+		    state.waitQueue = null;
+
+		    // if the thread is about to run, its time starts now
+		    state.runStart = Machine.timer().getTime();
+		    return state.thread;
+		}
+	    }
+
+	    return null;
+	}
+
+	/**
+	 * The specified thread has received access without waiting, so its
+	 * time starts now.
+	 */
+	public void acquire(KThread thread) {
+	    Lib.assertTrue(Machine.interrupt().disabled());
+
+	    getLevelState(thread).runStart = Machine.timer().getTime();
+	}
+
+	/**
+	 * Print out the contents of the queue, highest level first.
+	 */
+	public void print() {
+	    Lib.assertTrue(Machine.interrupt().disabled());
+
+	    for (int i=0; i<numLevels; i++) {
+		for (Iterator<LevelState> it=lists[i].iterator(); it.hasNext(); )
+		    System.out.print(it.next().thread + " (" + i + ") ");
+	    }
+	}
+
+	/**
+	 * Move a waiting thread to the list for its current level, after its
+	 * level was set directly. It keeps its place among the threads at the
+	 * new level according to when it started waiting.
+	 *
+	 * @param	state	the scheduling state of a thread waiting in this
+	 *			queue.
+	 */
+	void requeue(LevelState state) {
+	    age();
+
+	    for (int i=0; i<numLevels; i++) {
+		if (lists[i].remove(state))
+		    break;
+	    }
+
+	    LinkedList<LevelState> list = lists[state.getLevel()];
+	    ListIterator<LevelState> it = list.listIterator(list.size());
+	    while (it.hasPrevious()) {
+		if (it.previous().sequence <= state.sequence) {
+		    it.next();
+		    break;
+		}
+	    }
+	    it.add(state);
+	}
+
+	/**
+	 * If an aging period has ended since this queue last checked, move
+	 * every waiting thread to level 0, keeping them in the order they
+	 * started waiting.
+	 */
+	private void age() {
+	    long currentEpoch = getAgingEpoch();
+	    if (currentEpoch == epoch)
+		return;
+
+	    epoch = currentEpoch;
+
+	    LinkedList<LevelState> merged = lists[0];
+	    for (int i=1; i<numLevels; i++) {
+		LinkedList<LevelState> list = lists[i];
+		if (list.isEmpty())
+		    continue;
+
+		LinkedList<LevelState> result = new LinkedList<LevelState>();
+		while (!merged.isEmpty() || !list.isEmpty()) {
+		    if (list.isEmpty() ||
+			(!merged.isEmpty() &&
+			 merged.getFirst().sequence < list.getFirst().sequence))
+			result.add(merged.removeFirst());
+		    else
+			result.add(list.removeFirst());
+		}
+		merged = result;
+	    }
+	    lists[0] = merged;
+	}
+
+	private LinkedList<LevelState>[] lists;
+	private long numWaited = 0;
+	private long epoch;
+    }
+
+    /**
+     * The scheduling state of a thread: its level, and how much of its
+     * quantum it has used.
+     *
+     * @see	nachos.threads.KThread#schedulingState
+     */
+    protected class LevelState {
+	/**
+	 * Allocate a new <tt>LevelState</tt> object and associate it with the
+	 * specified thread.
+	 *
+	 * @param	thread	the thread this state belongs to.
+	 */
+	public LevelState(KThread thread) {
+	    this.thread = thread;
+	    this.epoch = getAgingEpoch();
+	    this.runStart = Machine.timer().getTime();
+	}
+
+	/**
+	 * Return the level of the associated thread, first moving it to level
+	 * 0 if an aging period has ended.
+	 *
+	 * @return	the level of the associated thread.
+	 */
+	int getLevel() {
+	    long currentEpoch = getAgingEpoch();
+	    if (epoch != currentEpoch) {
+		epoch = currentEpoch;
+		level = 0;
+		usedTicks = 0;
+	    }
+
+	    return level;
+	}
+
+	/**
+	 * Charge the associated thread for the time it has run since
+	 * <tt>runStart</tt>, and move it down a level if it has used up its
+	 * quantum.
+	 */
+	void charge() {
+	    int level = getLevel();
+	    long now = Machine.timer().getTime();
+
+	    usedTicks += now - runStart;
+	    runStart = now;
+
+	    if (usedTicks >= ((long) Stats.TimerTicks << level)) {
+		if (level < numLevels-1)
+		    this.level = level+1;
+		usedTicks = 0;
+	    }
+	}
+
+	/**
+	 * Move the associated thread up a level, because it blocked before
+	 * using up its quantum.
+	 */
+	void boost() {
+	    int level = getLevel();
+
+	    if (level > 0)
+		this.level = level-1;
+	    usedTicks = 0;
+	}
+
+	/** The thread with which this object is associated. */
+	protected KThread thread;
+	/** The level of the associated thread; 0 is the highest. */
+	protected int level = 0;
+	/** The ticks the thread has run at its current level. */
+	protected long usedTicks = 0;
+	/** The time the thread last started running. */
+	protected long runStart;
+	/** The order in which this thread started waiting in its queue. */
+	long sequence;
+	/** The queue this thread is waiting in, or <tt>null</tt>. */
+	MultiLevelQueue waitQueue = null;
+	/** The aging period in which <tt>level</tt> was last valid. */
+	private long epoch;
+    }
+
+    private int numLevels;
+    private long agingPeriod;
+}
@@ -25,6 +25,16 @@ import java.util.Iterator;
  * <p>
  * A priority scheduler must partially solve the priority inversion problem; in
  * particular, priority must be donated through locks, and through joins.
+ *
+ * <p>
+ * Each queue keeps one bucket of waiting threads per priority, and a bitmask
+ * of the buckets that are not empty, so the highest priority waiting thread
+ * is found in constant time. Within a bucket, threads are kept in an indexed
+ * heap ordered by when they started waiting, so a thread whose effective
+ * priority changes can be moved to another bucket without losing its place in
+ * line. Donations are updated incrementally: only the threads whose effective
+ * priority actually changes are visited, following the chain from a queue to
+ * its owner and on to the queue that owner is waiting for.
  */
 public class PriorityScheduler extends Scheduler {
     /**
@@ -96,6 +106,63 @@ public class PriorityScheduler extends Scheduler {
 	return true;
     }
 
+    /**
+     * Test that threads are dequeued by priority, oldest first, and that
+     * priority is donated along a chain of owners and withdrawn again. The
+     * threads are never forked; they only wait in queues of a private
+     * scheduler.
+     */
+    public static void selfTest() {
+	PriorityScheduler s = new PriorityScheduler();
+	boolean intStatus = Machine.interrupt().disable();
+
+	KThread a = new KThread(null).setName("a");
+	KThread b = new KThread(null).setName("b");
+	KThread c = new KThread(null).setName("c");
+	KThread d = new KThread(null).setName("d");
+
+	// a plain queue: highest priority first, then first come first served
+	ThreadQueue q = s.newThreadQueue(false);
+	s.setPriority(b, 5);
+	s.setPriority(c, 5);
+	q.waitForAccess(a);
+	q.waitForAccess(b);
+	q.waitForAccess(c);
+	s.setPriority(a, 6);
+	Lib.assertTrue(q.nextThread() == a);
+	Lib.assertTrue(q.nextThread() == b);
+	Lib.assertTrue(q.nextThread() == c);
+	Lib.assertTrue(q.nextThread() == null);
+	s.setPriority(a, priorityDefault);
+	s.setPriority(b, priorityDefault);
+	s.setPriority(c, priorityDefault);
+
+	// d waits on a lock held by b, while b waits on a lock held by a
+	ThreadQueue lock1 = s.newThreadQueue(true);
+	ThreadQueue lock2 = s.newThreadQueue(true);
+	lock1.acquire(a);
+	lock2.acquire(b);
+	lock1.waitForAccess(b);
+	lock2.waitForAccess(d);
+
+	s.setPriority(d, 6);
+	Lib.assertTrue(s.getEffectivePriority(b) == 6);
+	Lib.assertTrue(s.getEffectivePriority(a) == 6);
+
+	s.setPriority(d, 3);
+	Lib.assertTrue(s.getEffectivePriority(a) == 3);
+
+	// a releases lock1 to b, so only b still benefits from d
+	Lib.assertTrue(lock1.nextThread() == b);
+	Lib.assertTrue(s.getEffectivePriority(a) == priorityDefault);
+	Lib.assertTrue(s.getEffectivePriority(b) == 3);
+
+	Lib.assertTrue(lock2.nextThread() == d);
+	Lib.assertTrue(s.getEffectivePriority(b) == priorityDefault);
+
+	Machine.interrupt().restore(intStatus);
+    }
+
     /**
      * The default priority for a new thread. Do not change this value.
      */
@@ -128,6 +195,11 @@ public class PriorityScheduler extends Scheduler {
     protected class PriorityQueue extends ThreadQueue {
 	PriorityQueue(boolean transferPriority) {
 	    this.transferPriority = transferPriority;
+
+	    buckets = new ThreadState[priorityMaximum+1][];
+	    bucketSizes = new int[priorityMaximum+1];
+	    for (int i=0; i<buckets.length; i++)
+		buckets[i] = new ThreadState[4];
 	}
 
 	public void waitForAccess(KThread thread) {
@@ -142,8 +214,15 @@ public class PriorityScheduler extends Scheduler {
 
 	public KThread nextThread() {
 	    Lib.assertTrue(Machine.interrupt().disabled());
-	    // implement me
-	    return null;
+
+	    ThreadState next = pickNextThread();
+	    if (next == null) {
+		setOwner(null);
+		return null;
+	    }
+
+	    next.acquire(this);
+	    return next.thread;
 	}
 
 	/**
@@ -154,13 +233,167 @@ public class PriorityScheduler extends Scheduler {
 	 *		return.
 	 */
 	protected ThreadState pickNextThread() {
-	    // implement me
-	    return null;
+	    int priority = getTopPriority();
+	    if (priority < 0)
+		return null;
+
+	    return buckets[priority][0];
 	}
 	
 	public void print() {
 	    Lib.assertTrue(Machine.interrupt().disabled());
-	    // implement me (if you want)
+
+	    for (int priority=priorityMaximum; priority>=priorityMinimum;
+		 priority--) {
+		for (int i=0; i<bucketSizes[priority]; i++) {
+		    System.out.print(buckets[priority][i].thread + " (" +
+				     priority + ") ");
+		}
+	    }
+	    System.out.println();
+	}
+
+	/**
+	 * Return the highest effective priority of any thread waiting in this
+	 * queue.
+	 *
+	 * @return	the highest priority waiting, or -1 if the queue is empty.
+	 */
+	int getTopPriority() {
+	    if (nonEmptyBuckets == 0)
+		return -1;
+
+	    return 31 - Integer.numberOfLeadingZeros(nonEmptyBuckets);
+	}
+
+	/**
+	 * Add a waiting thread to the bucket for its effective priority.
+	 */
+	void add(ThreadState state) {
+	    int priority = state.effectivePriority;
+	    int oldTop = getTopPriority();
+
+	    insert(priority, state);
+
+	    if (priority > oldTop)
+		topPriorityChanged(oldTop);
+	}
+
+	/**
+	 * Remove a waiting thread from its bucket.
+	 */
+	void remove(ThreadState state) {
+	    int oldTop = getTopPriority();
+
+	    delete(state.effectivePriority, state);
+
+	    if (getTopPriority() != oldTop)
+		topPriorityChanged(oldTop);
+	}
+
+	/**
+	 * Move a waiting thread whose effective priority has changed from
+	 * <i>oldPriority</i> to its new bucket, keeping its place in line.
+	 */
+	void move(ThreadState state, int oldPriority) {
+	    int oldTop = getTopPriority();
+
+	    delete(oldPriority, state);
+	    insert(state.effectivePriority, state);
+
+	    if (getTopPriority() != oldTop)
+		topPriorityChanged(oldTop);
+	}
+
+	/**
+	 * Make <i>state</i> (which may be <tt>null</tt>) the owner of this
+	 * queue, taking this queue's donation away from the previous owner.
+	 */
+	void setOwner(ThreadState state) {
+	    if (!transferPriority || owner == state)
+		return;
+
+	    int top = getTopPriority();
+
+	    if (owner != null)
+		owner.changeDonation(top, -1);
+	    owner = state;
+	    if (owner != null)
+		owner.changeDonation(-1, top);
+	}
+
+	private void topPriorityChanged(int oldTop) {
+	    if (transferPriority && owner != null)
+		owner.changeDonation(oldTop, getTopPriority());
+	}
+
+	private void insert(int priority, ThreadState state) {
+	    if (bucketSizes[priority] == buckets[priority].length) {
+		ThreadState[] bigger = new ThreadState[bucketSizes[priority]*2];
+		System.arraycopy(buckets[priority], 0, bigger, 0,
+				 bucketSizes[priority]);
+		buckets[priority] = bigger;
+	    }
+
+	    nonEmptyBuckets |= (1 << priority);
+	    siftUp(buckets[priority], bucketSizes[priority]++, state);
+	}
+
+	private void delete(int priority, ThreadState state) {
+	    ThreadState[] heap = buckets[priority];
+	    int index = state.heapIndex;
+	    Lib.assertTrue(heap[index] == state);
+
+	    int size = --bucketSizes[priority];
+	    ThreadState last = heap[size];
+	    heap[size] = null;
+	    state.heapIndex = -1;
+
+	    if (size == 0)
+		nonEmptyBuckets &= ~(1 << priority);
+
+	    if (index < size) {
+		if (index > 0 && last.sequence < heap[(index-1)/2].sequence)
+		    siftUp(heap, index, last);
+		else
+		    siftDown(heap, size, index, last);
+	    }
+	}
+
+	private void siftUp(ThreadState[] heap, int index, ThreadState state) {
+	    while (index > 0) {
+		int parent = (index-1) / 2;
+		if (heap[parent].sequence <= state.sequence)
+		    break;
+
+		heap[index] = heap[parent];
+		heap[index].heapIndex = index;
+		index = parent;
+	    }
+
+	    heap[index] = state;
+	    state.heapIndex = index;
+	}
+
+	private void siftDown(ThreadState[] heap, int size, int index,
+			      ThreadState state) {
+	    while (true) {
+		int child = 2*index + 1;
+		if (child >= size)
+		    break;
+		if (child+1 < size &&
+		    heap[child+1].sequence < heap[child].sequence)
+		    child++;
+		if (state.sequence <= heap[child].sequence)
+		    break;
+
+		heap[index] = heap[child];
+		heap[index].heapIndex = index;
+		index = child;
+	    }
+
+	    heap[index] = state;
+	    state.heapIndex = index;
 	}
 
 	/**
@@ -168,6 +401,20 @@ public class PriorityScheduler extends Scheduler {
 	 * threads to the owning thread.
 	 */
 	public boolean transferPriority;
+
+	/** The thread that currently owns this queue, if it transfers. */
+	ThreadState owner = null;
+	/** The number of threads that have waited in this queue. */
+	long numWaited = 0;
+
+	/**
+	 * One indexed heap of waiting threads per effective priority, ordered
+	 * by <tt>ThreadState.sequence</tt>.
+	 */
+	private ThreadState[][] buckets;
+	private int[] bucketSizes;
+	/** Bit <i>p</i> is set if <tt>buckets[p]</tt> is not empty. */
+	private int nonEmptyBuckets = 0;
     }
 
     /**
@@ -205,8 +452,7 @@ public class PriorityScheduler extends Scheduler {
 	 * @return	the effective priority of the associated thread.
 	 */
 	public int getEffectivePriority() {
-	    // implement me
-	    return priority;
+	    return effectivePriority;
 	}
 
 	/**
@@ -220,7 +466,7 @@ public class PriorityScheduler extends Scheduler {
 	    
 	    this.priority = priority;
 	    
-	    // implement me
+	    updateEffectivePriority();
 	}
 
 	/**
@@ -236,7 +482,11 @@ public class PriorityScheduler extends Scheduler {
 	 * @see	nachos.threads.ThreadQueue#waitForAccess
 	 */
 	public void waitForAccess(PriorityQueue waitQueue) {
-	    // implement me
+	    Lib.assertTrue(this.waitQueue == null);
+
+	    this.waitQueue = waitQueue;
+	    sequence = waitQueue.numWaited++;
+	    waitQueue.add(this);
 	}
 
 	/**
@@ -250,12 +500,72 @@ public class PriorityScheduler extends Scheduler {
 	 * @see	nachos.threads.ThreadQueue#nextThread
 	 */
 	public void acquire(PriorityQueue waitQueue) {
-	    // implement me
+	    if (this.waitQueue == waitQueue) {
+		waitQueue.remove(this);
+		this.waitQueue = null;
+	    }
+
+	    waitQueue.setOwner(this);
 	}	
 
+	/**
+	 * Replace a donation of <i>oldPriority</i> from one of the queues
+	 * this thread owns with a donation of <i>newPriority</i>. Either may be
+	 * -1, meaning no donation.
+	 */
+	void changeDonation(int oldPriority, int newPriority) {
+	    if (oldPriority == newPriority)
+		return;
+	    
+	    if (oldPriority >= 0)
+		donations[oldPriority]--;
+	    if (newPriority >= 0)
+		donations[newPriority]++;
+
+	    updateEffectivePriority();
+	}
+
+	/**
+	 * Recompute the effective priority from the priority and the
+	 * donations, and if it changed, pass the change on to the queue this
+	 * thread is waiting in, which may in turn donate to its owner.
+	 */
+	private void updateEffectivePriority() {
+	    int newPriority = priority;
+	    for (int i=priorityMaximum; i>priority; i--) {
+		if (donations[i] > 0) {
+		    newPriority = i;
+		    break;
+		}
+	    }
+
+	    if (newPriority == effectivePriority)
+		return;
+
+	    int oldPriority = effectivePriority;
+	    effectivePriority = newPriority;
+
+	    if (waitQueue != null)
+		waitQueue.move(this, oldPriority);
+	}
+
 	/** The thread with which this object is associated. */	   
 	protected KThread thread;
 	/** The priority of the associated thread. */
 	protected int priority;
+	/** The priority of the associated thread, including donations. */
+	protected int effectivePriority;
+
+	/** The queue the associated thread is waiting in, if any. */
+	PriorityQueue waitQueue = null;
+	/** The order in which this thread started waiting in its queue. */
+	long sequence;
+	/** This thread's index in its bucket in <tt>waitQueue</tt>. */
+	int heapIndex = -1;
+	/**
+	 * The number of owned queues whose highest waiting priority is each
+	 * priority.
+	 */
+	private int[] donations = new int[priorityMaximum+1];
     }
 }
@@ -0,0 +1,361 @@
+package nachos.threads;
+
+import nachos.machine.*;
+
+import java.util.LinkedHashSet;
+
+/**
+ * A <tt>ReadWriteLock</tt> can be held either by any number of readers at
+ * once, or by a single writer:
+ *
+ * <ul>
+ * <li><tt>acquireRead()</tt>: wait until no writer holds or is waiting for
+ * the lock, and then hold it for reading.
+ * <li><tt>acquireWrite()</tt>: wait until the lock is not held, and then hold
+ * it for writing.
+ * <li><tt>releaseRead()</tt> and <tt>releaseWrite()</tt>: give up the lock,
+ * and hand it on to waiting threads if possible.
+ * </ul>
+ *
+ * <p>
+ * Writers are preferred: once a writer is waiting, no new reader gets the
+ * lock, and a writer that releases the lock hands it to the next waiting
+ * writer before any waiting readers. Readers are only let in when no writers
+ * are waiting, and then all the waiting readers get the lock together.
+ *
+ * <p>
+ * Waiting writers donate priority, through a thread queue that transfers
+ * priority, to the thread that holds the lock: the writer, or, while readers
+ * hold it, one of the readers. When that reader releases the lock before the
+ * others, the donation moves to the reader that has held it longest, so the
+ * choice is the same from one run to the next. Waiting readers do not donate
+ * priority.
+ */
+public class ReadWriteLock {
+    /**
+     * Allocate a new read-write lock. The lock will initially be free.
+     */
+    public ReadWriteLock() {
+    }
+
+    /**
+     * Atomically wait until no writer holds or is waiting for this lock, and
+     * then hold it for reading. The current thread must not already hold
+     * this lock.
+     */
+    public void acquireRead() {
+	Lib.assertTrue(!isWriteHeldByCurrentThread());
+
+	boolean intStatus = Machine.interrupt().disable();
+	KThread thread = KThread.currentThread();
+
+	Lib.assertTrue(!readers.contains(thread));
+
+	if (writer == null && numWaitingWriters == 0) {
+	    // no writers are waiting, so nobody else is in writerQueue
+	    numReaders++;
+	    readers.add(thread);
+	    if (donee == null) {
+		donee = thread;
+		writerQueue.acquire(thread);
+	    }
+	}
+	else {
+	    // releaseWrite() counts us as a reader before waking us
+	    readerQueue.waitForAccess(thread);
+	    KThread.sleep();
+	}
+
+	Machine.interrupt().restore(intStatus);
+    }
+
+    /**
+     * Atomically release this lock after reading. If this is the last reader,
+     * hand the lock to a waiting writer, if there is one. Otherwise, if this
+     * reader was receiving the waiting writers' priority, pass it to another
+     * reader.
+     */
+    public void releaseRead() {
+	boolean intStatus = Machine.interrupt().disable();
+	KThread thread = KThread.currentThread();
+
+	Lib.assertTrue(numReaders > 0 && writer == null);
+	Lib.assertTrue(readers.remove(thread));
+
+	if (--numReaders == 0) {
+	    donee = null;
+	    KThread next = writerQueue.nextThread();
+	    if (next != null) {
+		numWaitingWriters--;
+		writer = next;
+		next.ready();
+	    }
+	}
+	else if (thread == donee) {
+	    moveDonation(readers.iterator().next());
+	}
+
+	Machine.interrupt().restore(intStatus);
+    }
+
+    /**
+     * Atomically wait until this lock is not held, and then hold it for
+     * writing. The current thread must not already hold this lock.
+     */
+    public void acquireWrite() {
+	Lib.assertTrue(!isWriteHeldByCurrentThread());
+
+	boolean intStatus = Machine.interrupt().disable();
+	KThread thread = KThread.currentThread();
+
+	if (writer == null && numReaders == 0) {
+	    // the lock is only free when nobody is waiting for it
+	    writer = thread;
+	    writerQueue.acquire(thread);
+	}
+	else {
+	    numWaitingWriters++;
+	    writerQueue.waitForAccess(thread);
+	    KThread.sleep();
+	}
+
+	Lib.assertTrue(writer == thread);
+
+	Machine.interrupt().restore(intStatus);
+    }
+
+    /**
+     * Atomically release this lock after writing. Hand it to the next waiting
+     * writer if there is one, or else to all the waiting readers.
+     */
+    public void releaseWrite() {
+	Lib.assertTrue(isWriteHeldByCurrentThread());
+
+	boolean intStatus = Machine.interrupt().disable();
+
+	writer = writerQueue.nextThread();
+	if (writer != null) {
+	    numWaitingWriters--;
+	    writer.ready();
+	}
+	else {
+	    KThread reader;
+	    while ((reader = readerQueue.nextThread()) != null) {
+		numReaders++;
+		readers.add(reader);
+		reader.ready();
+		donee = reader;
+	    }
+
+	    if (donee != null)
+		writerQueue.acquire(donee);
+	}
+
+	Machine.interrupt().restore(intStatus);
+    }
+
+    /**
+     * Make <i>reader</i> the owner of <tt>writerQueue</tt>, so the waiting
+     * writers donate their priority to it. A thread queue can only be given
+     * a new owner while nobody is waiting in it, so if writers are waiting
+     * they are moved to a new queue that <i>reader</i> owns.
+     *
+     * @param	reader	a thread that holds this lock for reading.
+     */
+    private void moveDonation(KThread reader) {
+	donee = reader;
+
+	if (numWaitingWriters == 0) {
+	    writerQueue.acquire(reader);
+	    return;
+	}
+
+	ThreadQueue queue = ThreadedKernel.scheduler.newThreadQueue(true);
+	queue.acquire(reader);
+
+	// the old queue hands the writers out in the order it would wake them
+	KThread waitingWriter;
+	while ((waitingWriter = writerQueue.nextThread()) != null)
+	    queue.waitForAccess(waitingWriter);
+
+	writerQueue = queue;
+    }
+
+    /**
+     * Test if the current thread holds this lock for writing.
+     *
+     * @return	true if the current thread holds this lock for writing.
+     */
+    public boolean isWriteHeldByCurrentThread() {
+	return (writer == KThread.currentThread());
+    }
+
+    private static class Reader implements Runnable {
+	Reader(ReadWriteLock lock, int[] value, Semaphore done) {
+	    this.lock = lock;
+	    this.value = value;
+	    this.done = done;
+	}
+
+	public void run() {
+	    for (int i=0; i<10; i++) {
+		lock.acquireRead();
+		int seen = value[0];
+		KThread.yield();
+		// writers are kept out while we hold the lock
+		Lib.assertTrue(value[0] == seen && value[1] == seen);
+		lock.releaseRead();
+	    }
+	    done.V();
+	}
+
+	private ReadWriteLock lock;
+	private int[] value;
+	private Semaphore done;
+    }
+
+    private static class Writer implements Runnable {
+	Writer(ReadWriteLock lock, int[] value, Semaphore done) {
+	    this.lock = lock;
+	    this.value = value;
+	    this.done = done;
+	}
+
+	public void run() {
+	    for (int i=0; i<10; i++) {
+		lock.acquireWrite();
+		value[0]++;
+		KThread.yield();
+		value[1]++;
+		lock.releaseWrite();
+	    }
+	    done.V();
+	}
+
+	private ReadWriteLock lock;
+	private int[] value;
+	private Semaphore done;
+    }
+
+    private static class HeldReader implements Runnable {
+	HeldReader(ReadWriteLock lock, Semaphore held, Semaphore release,
+		   Semaphore done) {
+	    this.lock = lock;
+	    this.held = held;
+	    this.release = release;
+	    this.done = done;
+	}
+
+	public void run() {
+	    lock.acquireRead();
+	    held.V();
+	    release.P();
+	    lock.releaseRead();
+	    done.V();
+	}
+
+	private ReadWriteLock lock;
+	private Semaphore held, release, done;
+    }
+
+    /**
+     * Test that a high-priority writer waiting behind two readers keeps
+     * donating to the reader that still holds the lock when the other reader
+     * leaves. Priorities are only checked under a <tt>PriorityScheduler</tt>.
+     *
+     * @param	lastInLeavesFirst	<tt>true</tt> if the second reader to get
+     *					the lock releases it first.
+     */
+    private static void donationTest(boolean lastInLeavesFirst) {
+	final ReadWriteLock lock = new ReadWriteLock();
+	Semaphore held = new Semaphore(0);
+	final Semaphore done = new Semaphore(0);
+	Semaphore release1 = new Semaphore(0), release2 = new Semaphore(0);
+
+	KThread reader1 =
+	    new KThread(new HeldReader(lock, held, release1, done))
+	    .setName("reader 1");
+	KThread reader2 =
+	    new KThread(new HeldReader(lock, held, release2, done))
+	    .setName("reader 2");
+	KThread writer = new KThread(new Runnable() {
+		public void run() {
+		    lock.acquireWrite();
+		    lock.releaseWrite();
+		    done.V();
+		}
+	    }).setName("writer");
+
+	boolean checkPriority =
+	    (ThreadedKernel.scheduler instanceof PriorityScheduler);
+	if (checkPriority) {
+	    boolean intStatus = Machine.interrupt().disable();
+	    ThreadedKernel.scheduler.setPriority(writer,
+						 PriorityScheduler.priorityMaximum);
+	    Machine.interrupt().restore(intStatus);
+	}
+
+	reader1.fork();
+	held.P();
+	reader2.fork();
+	held.P();
+
+	writer.fork();
+	while (lock.numWaitingWriters == 0)
+	    KThread.yield();
+
+	KThread remaining = (lastInLeavesFirst ? reader1 : reader2);
+	(lastInLeavesFirst ? release2 : release1).V();
+	done.P();
+
+	if (checkPriority) {
+	    boolean intStatus = Machine.interrupt().disable();
+	    Lib.assertTrue(ThreadedKernel.scheduler.getEffectivePriority(remaining)
+			   >= PriorityScheduler.priorityMaximum);
+	    Machine.interrupt().restore(intStatus);
+	}
+
+	(lastInLeavesFirst ? release1 : release2).V();
+	done.P();
+	done.P();
+    }
+
+    /**
+     * Test if this module is working.
+     */
+    public static void selfTest() {
+	ReadWriteLock lock = new ReadWriteLock();
+	int[] value = new int[2];
+	Semaphore done = new Semaphore(0);
+
+	for (int i=0; i<3; i++) {
+	    new KThread(new Reader(lock, value, done)).setName("reader " + i)
+		.fork();
+	}
+	for (int i=0; i<2; i++) {
+	    new KThread(new Writer(lock, value, done)).setName("writer " + i)
+		.fork();
+	}
+
+	for (int i=0; i<5; i++)
+	    done.P();
+
+	Lib.assertTrue(value[0] == 20 && value[1] == 20);
+
+	donationTest(true);
+	donationTest(false);
+    }
+
+    private KThread writer = null;
+    private int numReaders = 0;
+    /** The threads holding this lock for reading, in the order they got it. */
+    private LinkedHashSet<KThread> readers = new LinkedHashSet<KThread>();
+    /** The reader that owns <tt>writerQueue</tt>, if readers hold the lock. */
+    private KThread donee = null;
+    private int numWaitingWriters = 0;
+
+    private ThreadQueue writerQueue =
+	ThreadedKernel.scheduler.newThreadQueue(true);
+    private ThreadQueue readerQueue =
+	ThreadedKernel.scheduler.newThreadQueue(false);
+}
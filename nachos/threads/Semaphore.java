@@ -28,7 +28,20 @@ public class Semaphore {
      * @param	initialValue	the initial value of this semaphore.
      */
     public Semaphore(int initialValue) {
+	this(initialValue, "Semaphore");
+    }
+
+    /**
+     * Allocate a new semaphore whose contention is counted under the
+     * specified name.
+     *
+     * @param	initialValue	the initial value of this semaphore.
+     * @param	name		the name to count this semaphore under, or
+     *				<tt>null</tt> not to count it at all.
+     */
+    public Semaphore(int initialValue, String name) {
 	value = initialValue;
+	stats = ContentionStats.forName(name);
     }
 
     /**
@@ -38,10 +51,18 @@ public class Semaphore {
 	boolean intStatus = Machine.interrupt().disable();
 
 	if (value == 0) {
+	    long waitStart =
+		(stats != null ? stats.beginWait(++numWaiting) : 0);
 	    waitQueue.waitForAccess(KThread.currentThread());
 	    KThread.sleep();
+	    if (stats != null) {
+		numWaiting--;
+		stats.endWait(waitStart);
+	    }
 	}
 	else {
+	    if (stats != null)
+		stats.acquired();
 	    value--;
 	}
 
@@ -66,6 +87,17 @@ public class Semaphore {
 	Machine.interrupt().restore(intStatus);
     }
 
+    /**
+     * Name this semaphore, as described in <tt>ContentionStats</tt>.
+     *
+     * @param	name	the name, or <tt>null</tt>.
+     * @return	this semaphore.
+     */
+    public Semaphore setName(String name) {
+	stats = ContentionStats.forName(name);
+	return this;
+    }
+
     private static class PingTest implements Runnable {
 	PingTest(Semaphore ping, Semaphore pong) {
 	    this.ping = ping;
@@ -99,6 +131,8 @@ public class Semaphore {
     }
 
     private int value;
+    private ContentionStats stats;
+    private int numWaiting = 0;
     private ThreadQueue waitQueue =
 	ThreadedKernel.scheduler.newThreadQueue(false);
 }
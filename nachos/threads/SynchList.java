@@ -14,7 +14,7 @@ public class SynchList {
     public SynchList() {
 	list = new LinkedList<Object>();
 	lock = new Lock();
-	listEmpty = new Condition(lock);
+	listEmpty = new Condition2(lock);
     }
 
     /**
@@ -42,14 +42,37 @@ public class SynchList {
 	Object o;
 
 	lock.acquire();
+	long waitStart = -1;
+	if (stats != null && list.isEmpty())
+	    waitStart = stats.beginWait(++numWaiting);
 	while (list.isEmpty())
 	    listEmpty.sleep();
+	if (stats != null) {
+	    if (waitStart < 0) {
+		stats.acquired();
+	    }
+	    else {
+		numWaiting--;
+		stats.endWait(waitStart);
+	    }
+	}
 	o = list.removeFirst();
 	lock.release();
 
 	return o;
     }
 
+    /**
+     * Name this queue, as described in <tt>ContentionStats</tt>.
+     *
+     * @param	name	the name, or <tt>null</tt>.
+     * @return	this queue.
+     */
+    public SynchList setName(String name) {
+	stats = ContentionStats.forName(name);
+	return this;
+    }
+
     private static class PingTest implements Runnable {
 	PingTest(SynchList ping, SynchList pong) {
 	    this.ping = ping;
@@ -83,6 +106,8 @@ public class SynchList {
 
     private LinkedList<Object> list;
     private Lock lock;
-    private Condition listEmpty;
+    private Condition2 listEmpty;
+    private ContentionStats stats = ContentionStats.forName("SynchList");
+    private int numWaiting = 0;
 }
 
@@ -49,6 +49,15 @@ public class ThreadedKernel extends Kernel {
 	//KThread.selfTest();
 	//Semaphore.selfTest();
 	//SynchList.selfTest();
+	//ArraySynchList.selfTest();
+	//PriorityScheduler.selfTest();
+	//LotteryScheduler.selfTest();
+	//MLFQScheduler.selfTest();
+	//Communicator.selfTest();
+	//BoundedCommunicator.selfTest();
+	//ReadWriteLock.selfTest();
+	//CountDownLatch.selfTest();
+	//Barrier.selfTest();
 	Condition2.selfTest();
 	if (Machine.bank() != null) {
 	    ElevatorBank.selfTest();
@@ -63,9 +72,11 @@ public class ThreadedKernel extends Kernel {
     }
 
     /**
-     * Terminate this kernel. Never returns.
+     * Terminate this kernel, printing the contention counts if they are
+     * enabled. Never returns.
      */
     public void terminate() {
+	ContentionStats.print();
 	Machine.halt();
     }
 
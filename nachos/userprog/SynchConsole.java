@@ -83,6 +83,28 @@ public class SynchConsole {
 	writeLock.release();
     }
 
+    /**
+     * Send the bytes in several spans of a buffer, in order, without letting
+     * other threads write in between. Blocks until the last send is
+     * complete.
+     *
+     * @param	buf		the buffer holding the bytes.
+     * @param	offsets		the offset in the buffer of each span.
+     * @param	lengths		the length of each span.
+     * @param	numSpans	the number of spans to send.
+     */
+    public void writeBytes(byte[] buf, int[] offsets, int[] lengths,
+			   int numSpans) {
+	writeLock.acquire();
+	for (int i=0; i<numSpans; i++) {
+	    for (int j=0; j<lengths[i]; j++) {
+		console.writeByte(buf[offsets[i]+j]);
+		writeWait.P();
+	    }
+	}
+	writeLock.release();
+    }
+
     /**
      * Return an <tt>OpenFile</tt> that can be used to write this as a file.
      *
@@ -99,10 +121,12 @@ public class SynchConsole {
     private boolean charAvailable = false;
 
     private SerialConsole console;
-    private Lock readLock = new Lock();
-    private Lock writeLock = new Lock();
-    private Semaphore readWait = new Semaphore(0);
-    private Semaphore writeWait = new Semaphore(0);
+    private Lock readLock = new Lock().setName("SynchConsole.readLock");
+    private Lock writeLock = new Lock().setName("SynchConsole.writeLock");
+    private Semaphore readWait =
+	new Semaphore(0).setName("SynchConsole.readWait");
+    private Semaphore writeWait =
+	new Semaphore(0).setName("SynchConsole.writeWait");
 
     private class File extends OpenFile {
 	File(boolean canRead, boolean canWrite) {
@@ -142,6 +166,19 @@ public class SynchConsole {
 	    return length;
 	}
 
+	public int write(byte[] buf, int[] offsets, int[] lengths,
+			 int numSpans) {
+	    if (!canWrite)
+		return 0;
+
+	    SynchConsole.this.writeBytes(buf, offsets, lengths, numSpans);
+
+	    int total = 0;
+	    for (int i=0; i<numSpans; i++)
+		total += lengths[i];
+	    return total;
+	}
+
 	private boolean canRead, canWrite;
     }
 }
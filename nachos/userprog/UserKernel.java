@@ -4,6 +4,8 @@ import nachos.machine.*;
 import nachos.threads.*;
 import nachos.userprog.*;
 
+import java.util.BitSet;
+
 /**
  * A kernel that can support multiple user processes.
  */
@@ -16,13 +18,20 @@ public class UserKernel extends ThreadedKernel {
     }
 
     /**
-     * Initialize this kernel. Creates a synchronized console and sets the
-     * processor's exception handler.
+     * Initialize this kernel. Creates a synchronized console, sets the
+     * processor's exception handler, and marks all of physical memory free.
      */
     public void initialize(String[] args) {
 	super.initialize(args);
 
 	console = new SynchConsole(Machine.console());
+
+	int numPhysPages = Machine.processor().getNumPhysPages();
+	freePages = new int[numPhysPages];
+	for (int i=0; i<numPhysPages; i++)
+	    freePages[i] = numPhysPages-1 - i;
+	numFreePages = numPhysPages;
+	allocatedPages = new BitSet(numPhysPages);
 	
 	Machine.processor().setExceptionHandler(new Runnable() {
 		public void run() { exceptionHandler(); }
@@ -61,6 +70,51 @@ public class UserKernel extends ThreadedKernel {
 	return ((UThread) KThread.currentThread()).process;
     }
 
+    /**
+     * Allocate a page of physical memory. Free pages are kept on a stack, so
+     * the page freed most recently is allocated first.
+     *
+     * @return	the physical page number of the page, or -1 if there are no
+     *		free pages.
+     */
+    public static int allocatePage() {
+	boolean intStatus = Machine.interrupt().disable();
+
+	int ppn = -1;
+	if (numFreePages > 0) {
+	    ppn = freePages[--numFreePages];
+	    allocatedPages.set(ppn);
+	}
+
+	Machine.interrupt().restore(intStatus);
+	return ppn;
+    }
+
+    /**
+     * Return a page of physical memory allocated by <tt>allocatePage()</tt>
+     * to the free pages.
+     *
+     * @param	ppn	the physical page number of the page.
+     */
+    public static void freePage(int ppn) {
+	boolean intStatus = Machine.interrupt().disable();
+
+	Lib.assertTrue(allocatedPages.get(ppn));
+	allocatedPages.clear(ppn);
+	freePages[numFreePages++] = ppn;
+
+	Machine.interrupt().restore(intStatus);
+    }
+
+    /**
+     * Return the number of pages of physical memory that are free.
+     *
+     * @return	the number of free pages.
+     */
+    public static int getNumFreePages() {
+	return numFreePages;
+    }
+
     /**
      * The exception handler. This handler is called by the processor whenever
      * a user instruction causes a processor exception.
@@ -101,15 +155,23 @@ public class UserKernel extends ThreadedKernel {
     }
 
     /**
-     * Terminate this kernel. Never returns.
+     * Terminate this kernel, printing the syscall counts first. Never returns.
      */
     public void terminate() {
+	UserProcess.printSyscallStats();
+
 	super.terminate();
     }
 
     /** Globally accessible reference to the synchronized console. */
     public static SynchConsole console;
 
+    /** The free physical pages; the top of the stack is at the end. */
+    private static int[] freePages;
+    private static int numFreePages;
+    /** The physical pages that are allocated, to catch double frees. */
+    private static BitSet allocatedPages;
+
     // dummy variables to make javac smarter
     private static Coff dummy1 = null;
 }
@@ -5,6 +5,11 @@ import nachos.threads.*;
 import nachos.userprog.*;
 
 import java.io.EOFException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 
 /**
  * Encapsulates the state of a user process that is not contained in its
@@ -23,10 +28,9 @@ public class UserProcess {
      * Allocate a new process.
      */
     public UserProcess() {
-	int numPhysPages = Machine.processor().getNumPhysPages();
-	pageTable = new TranslationEntry[numPhysPages];
-	for (int i=0; i<numPhysPages; i++)
-	    pageTable[i] = new TranslationEntry(i,i, true,false,false,false);
+	boolean intStatus = Machine.interrupt().disable();
+	pid = nextPid++;
+	Machine.interrupt().restore(intStatus);
     }
     
     /**
@@ -42,7 +46,8 @@ public class UserProcess {
 
     /**
      * Execute the specified program with the specified arguments. Attempts to
-     * load the program, and then forks a thread to run it.
+     * load the program, and then forks a thread to run it, with the console
+     * open as file descriptors 0 and 1.
      *
      * @param	name	the name of the file containing the executable.
      * @param	args	the arguments to pass to the executable.
@@ -51,6 +56,13 @@ public class UserProcess {
     public boolean execute(String name, String[] args) {
 	if (!load(name, args))
 	    return false;
+
+	fileTable[0] = UserKernel.console.openForReading();
+	fileTable[1] = UserKernel.console.openForWriting();
+
+	boolean intStatus = Machine.interrupt().disable();
+	numRunning++;
+	Machine.interrupt().restore(intStatus);
 	
 	new UThread(this).setName(name).fork();
 
@@ -129,18 +141,7 @@ public class UserProcess {
      */
     public int readVirtualMemory(int vaddr, byte[] data, int offset,
 				 int length) {
-	Lib.assertTrue(offset >= 0 && length >= 0 && offset+length <= data.length);
-
-	byte[] memory = Machine.processor().getMemory();
-	
-	// for now, just assume that virtual addresses equal physical addresses
-	if (vaddr < 0 || vaddr >= memory.length)
-	    return 0;
-
-	int amount = Math.min(length, memory.length-vaddr);
-	System.arraycopy(memory, vaddr, data, offset, amount);
-
-	return amount;
+	return transferVirtualMemory(vaddr, data, offset, length, false);
     }
 
     /**
@@ -172,20 +173,158 @@ public class UserProcess {
      */
     public int writeVirtualMemory(int vaddr, byte[] data, int offset,
 				  int length) {
+	return transferVirtualMemory(vaddr, data, offset, length, true);
+    }
+
+    /**
+     * Copy data between the specified array and this process's virtual
+     * memory. The copy stops at the first page that is not valid, or that is
+     * read-only if writing; everything before that page has been copied.
+     *
+     * @param	vaddr	the first byte of virtual memory to transfer.
+     * @param	data	the array to transfer to or from.
+     * @param	offset	the first byte of the array to transfer.
+     * @param	length	the number of bytes to transfer.
+     * @param	write	<tt>true</tt> to copy from the array to virtual memory,
+     *			<tt>false</tt> to copy from virtual memory to the array.
+     * @return	the number of bytes successfully transferred.
+     */
+    private int transferVirtualMemory(int vaddr, byte[] data, int offset,
+				      int length, boolean write) {
 	Lib.assertTrue(offset >= 0 && length >= 0 && offset+length <= data.length);
 
-	byte[] memory = Machine.processor().getMemory();
-	
-	// for now, just assume that virtual addresses equal physical addresses
-	if (vaddr < 0 || vaddr >= memory.length)
-	    return 0;
+	Processor processor = Machine.processor();
+	byte[] memory = processor.getMemoryWithoutInvalidating();
+	int numSpans = mapVirtualMemory(vaddr, length, write);
+
+	int amount = 0;
+	for (int i=0; i<numSpans; i++) {
+	    if (write) {
+		System.arraycopy(data, offset+amount, memory, spanOffsets[i],
+				 spanLengths[i]);
+		processor.invalidateMemory(spanOffsets[i], spanLengths[i]);
+	    }
+	    else
+		System.arraycopy(memory, spanOffsets[i], data, offset+amount,
+				 spanLengths[i]);
 
-	int amount = Math.min(length, memory.length-vaddr);
-	System.arraycopy(data, offset, memory, vaddr, amount);
+	    amount += spanLengths[i];
+	}
 
 	return amount;
     }
 
+    /**
+     * Read up to <i>length</i> bytes from the specified file into this
+     * process's virtual memory. The file reads straight into the pages of main
+     * memory that back the buffer, without a copy in between. Only the part
+     * of the buffer up to the first page that is not valid or is read-only is
+     * used.
+     *
+     * @param	file	the file to read from.
+     * @param	vaddr	the first byte of virtual memory to read into.
+     * @param	length	the number of bytes to read.
+     * @return	the number of bytes read, or -1 if the file failed before
+     *		reading anything or no byte of the buffer could be written.
+     */
+    public int readFileToVirtualMemory(OpenFile file, int vaddr, int length) {
+	Lib.assertTrue(length >= 0);
+
+	int numSpans = mapVirtualMemory(vaddr, length, true);
+	if (numSpans == 0)
+	    return (length == 0 ? 0 : -1);
+
+	Processor processor = Machine.processor();
+	int amount = file.read(processor.getMemoryWithoutInvalidating(),
+			       spanOffsets, spanLengths, numSpans);
+
+	// only the pages the file actually wrote can hold stale instructions
+	for (int i=0, left=amount; i<numSpans && left>0; i++) {
+	    processor.invalidateMemory(spanOffsets[i],
+				       Math.min(left, spanLengths[i]));
+	    left -= spanLengths[i];
+	}
+
+	return amount;
+    }
+
+    /**
+     * Write up to <i>length</i> bytes of this process's virtual memory to the
+     * specified file. The file writes straight from the pages of main memory
+     * that back the buffer, without a copy in between. Only the part of the
+     * buffer up to the first page that is not valid is used.
+     *
+     * @param	file	the file to write to.
+     * @param	vaddr	the first byte of virtual memory to write.
+     * @param	length	the number of bytes to write.
+     * @return	the number of bytes written, or -1 if the file failed before
+     *		writing anything or no byte of the buffer could be read.
+     */
+    public int writeFileFromVirtualMemory(OpenFile file, int vaddr,
+					  int length) {
+	Lib.assertTrue(length >= 0);
+
+	int numSpans = mapVirtualMemory(vaddr, length, false);
+	if (numSpans == 0)
+	    return (length == 0 ? 0 : -1);
+
+	return file.write(Machine.processor().getMemoryWithoutInvalidating(),
+			  spanOffsets, spanLengths, numSpans);
+    }
+
+    /**
+     * Find the spans of main memory that back <i>length</i> bytes of virtual
+     * memory starting at <i>vaddr</i>, one span per page, and store them in
+     * <tt>spanOffsets</tt> and <tt>spanLengths</tt>. Each page is translated
+     * through <tt>pageTable</tt> once, and its <tt>used</tt> bit, and
+     * <tt>dirty</tt> bit if writing, are set. The spans stop at the first
+     * page that is not valid, or that is read-only if writing.
+     *
+     * @param	vaddr	the first byte of virtual memory.
+     * @param	length	the number of bytes.
+     * @param	write	<tt>true</tt> if the memory will be written.
+     * @return	the number of spans found.
+     */
+    private int mapVirtualMemory(int vaddr, int length, boolean write) {
+	if (spanOffsets == null || spanOffsets.length < pageTable.length) {
+	    spanOffsets = new int[pageTable.length];
+	    spanLengths = new int[pageTable.length];
+	}
+
+	int memoryLength = Machine.processor().getNumPhysPages()*pageSize;
+	int amount = 0, numSpans = 0;
+
+	while (amount < length) {
+	    // addresses past the top of memory wrap, and fail here
+	    int vpn = Processor.pageFromAddress(vaddr+amount);
+	    int pageOffset = Processor.offsetFromAddress(vaddr+amount);
+
+	    if (vpn >= pageTable.length || pageTable[vpn] == null)
+		break;
+
+	    TranslationEntry entry = pageTable[vpn];
+	    if (!entry.valid || (write && entry.readOnly))
+		break;
+
+	    int paddr = entry.ppn*pageSize + pageOffset;
+	    if (entry.ppn < 0 || paddr >= memoryLength)
+		break;
+
+	    int span = Math.min(length-amount, pageSize-pageOffset);
+	    spanOffsets[numSpans] = paddr;
+	    spanLengths[numSpans] = span;
+	    numSpans++;
+
+	    entry.used = true;
+	    if (write)
+		entry.dirty = true;
+
+	    amount += span;
+	}
+
+	return numSpans;
+    }
+
     /**
      * Load the executable with the specified name into this process, and
      * prepare to pass it the specified arguments. Opens the executable, reads
@@ -279,16 +418,31 @@ public class UserProcess {
      * memory. If this returns successfully, the process will definitely be
      * run (this is the last step in process initialization that can fail).
      *
+     * <p>
+     * Each virtual page gets whatever physical page
+     * <tt>UserKernel.allocatePage()</tt> returns, so a process's pages need
+     * not be contiguous. The pages of the stack and arguments are cleared,
+     * since they may have belonged to another process.
+     *
      * @return	<tt>true</tt> if the sections were successfully loaded.
      */
     protected boolean loadSections() {
-	if (numPages > Machine.processor().getNumPhysPages()) {
-	    coff.close();
-	    Lib.debug(dbgProcess, "\tinsufficient physical memory");
-	    return false;
+	pageTable = new TranslationEntry[numPages];
+	for (int vpn=0; vpn<numPages; vpn++) {
+	    int ppn = UserKernel.allocatePage();
+	    if (ppn == -1) {
+		unloadSections();
+		coff.close();
+		Lib.debug(dbgProcess, "\tinsufficient physical memory");
+		return false;
+	    }
+
+	    pageTable[vpn] = new TranslationEntry(vpn, ppn,
+						  true, false, false, false);
 	}
 
 	// load sections
+	int numSectionPages = 0;
 	for (int s=0; s<coff.getNumSections(); s++) {
 	    CoffSection section = coff.getSection(s);
 	    
@@ -298,9 +452,17 @@ public class UserProcess {
 	    for (int i=0; i<section.getLength(); i++) {
 		int vpn = section.getFirstVPN()+i;
 
-		// for now, just assume virtual addresses=physical addresses
-		section.loadPage(i, vpn);
+		section.loadPage(i, pageTable[vpn].ppn);
+		pageTable[vpn].readOnly = section.isReadOnly();
 	    }
+
+	    numSectionPages += section.getLength();
+	}
+
+	byte[] memory = Machine.processor().getMemory();
+	for (int vpn=numSectionPages; vpn<numPages; vpn++) {
+	    int paddr = pageTable[vpn].ppn*pageSize;
+	    Arrays.fill(memory, paddr, paddr+pageSize, (byte) 0);
 	}
 	
 	return true;
@@ -310,6 +472,12 @@ public class UserProcess {
      * Release any resources allocated by <tt>loadSections()</tt>.
      */
     protected void unloadSections() {
+	for (int vpn=0; vpn<pageTable.length; vpn++) {
+	    if (pageTable[vpn] != null) {
+		UserKernel.freePage(pageTable[vpn].ppn);
+		pageTable[vpn] = null;
+	    }
+	}
     }    
 
     /**
@@ -340,12 +508,216 @@ public class UserProcess {
      */
     private int handleHalt() {
 
-	Machine.halt();
+	Kernel.kernel.terminate();
 	
-	Lib.assertNotReached("Machine.halt() did not halt machine!");
+	Lib.assertNotReached("Kernel.terminate() did not halt machine!");
+	return 0;
+    }
+
+    /**
+     * Handle the exit() system call.
+     */
+    private int handleExit(int status) {
+	exit(status, true);
+
+	Lib.assertNotReached();
+	return 0;
+    }
+
+    /**
+     * Handle the exec() system call.
+     */
+    private int handleExec(int fileAddr, int argc, int argvAddr) {
+	String file = readVirtualMemoryString(fileAddr, maxNameLength);
+	if (file == null || !file.endsWith(".coff"))
+	    return -1;
+
+	// the arguments have to fit in one page anyway
+	if (argc < 0 || argc > pageSize/4)
+	    return -1;
+
+	String[] args = new String[argc];
+	byte[] pointer = new byte[4];
+	for (int i=0; i<argc; i++) {
+	    if (readVirtualMemory(argvAddr + i*4, pointer) != 4)
+		return -1;
+
+	    args[i] = readVirtualMemoryString(Lib.bytesToInt(pointer, 0),
+					      maxNameLength);
+	    if (args[i] == null)
+		return -1;
+	}
+
+	UserProcess child = newUserProcess();
+	if (!child.execute(file, args))
+	    return -1;
+
+	children.put(child.pid, child);
+	return child.pid;
+    }
+
+    /**
+     * Handle the join() system call.
+     */
+    private int handleJoin(int processID, int statusAddr) {
+	// a child can only be joined once
+	UserProcess child = children.remove(processID);
+	if (child == null)
+	    return -1;
+
+	child.exited.P();
+
+	if (!child.exitedNormally)
+	    return 0;
+
+	writeVirtualMemory(statusAddr, Lib.bytesFromInt(child.exitStatus));
+	return 1;
+    }
+
+    /**
+     * Handle the creat() and open() system calls.
+     */
+    private int handleOpen(int nameAddr, boolean create) {
+	int fd = 0;
+	while (fd < fileTable.length && fileTable[fd] != null)
+	    fd++;
+	if (fd == fileTable.length)
+	    return -1;
+
+	String name = readVirtualMemoryString(nameAddr, maxNameLength);
+	if (name == null)
+	    return -1;
+
+	OpenFile file = ThreadedKernel.fileSystem.open(name, create);
+	if (file == null)
+	    return -1;
+
+	fileTable[fd] = file;
+	return fd;
+    }
+
+    /**
+     * Handle the read() system call.
+     */
+    private int handleRead(int fd, int bufferAddr, int count) {
+	OpenFile file = getOpenFile(fd);
+	if (file == null || count < 0)
+	    return -1;
+
+	return readFileToVirtualMemory(file, bufferAddr, count);
+    }
+
+    /**
+     * Handle the write() system call.
+     */
+    private int handleWrite(int fd, int bufferAddr, int count) {
+	OpenFile file = getOpenFile(fd);
+	if (file == null || count < 0)
+	    return -1;
+
+	return writeFileFromVirtualMemory(file, bufferAddr, count);
+    }
+
+    /**
+     * Handle the close() system call.
+     */
+    private int handleClose(int fd) {
+	OpenFile file = getOpenFile(fd);
+	if (file == null)
+	    return -1;
+
+	file.close();
+	fileTable[fd] = null;
 	return 0;
     }
 
+    /**
+     * Handle the unlink() system call.
+     */
+    private int handleUnlink(int nameAddr) {
+	String name = readVirtualMemoryString(nameAddr, maxNameLength);
+	if (name == null)
+	    return -1;
+
+	return (ThreadedKernel.fileSystem.remove(name) ? 0 : -1);
+    }
+
+    /**
+     * Handle the mmap() system call. Not supported without virtual memory.
+     *
+     * @return	-1.
+     */
+    protected int handleMmap(int fd, int addr) {
+	return -1;
+    }
+
+    /**
+     * Handle the connect() system call. Not supported without networking.
+     *
+     * @return	-1.
+     */
+    protected int handleConnect(int host, int port) {
+	return -1;
+    }
+
+    /**
+     * Handle the accept() system call. Not supported without networking.
+     *
+     * @return	-1.
+     */
+    protected int handleAccept(int port) {
+	return -1;
+    }
+
+    /**
+     * Return the file open as the specified file descriptor.
+     *
+     * @param	fd	the file descriptor.
+     * @return	the open file, or <tt>null</tt> if <i>fd</i> is not open.
+     */
+    private OpenFile getOpenFile(int fd) {
+	if (fd < 0 || fd >= fileTable.length)
+	    return null;
+
+	return fileTable[fd];
+    }
+
+    /**
+     * Terminate this process. Close its open files, release its memory, and
+     * wake up its parent if it is waiting in <tt>join()</tt>. If this is the
+     * last process running, terminate the kernel. Never returns.
+     *
+     * @param	status	the exit status to return to the parent.
+     * @param	normal	<tt>false</tt> if the process is being killed by an
+     *			unhandled exception.
+     */
+    protected void exit(int status, boolean normal) {
+	for (int fd=0; fd<fileTable.length; fd++) {
+	    if (fileTable[fd] != null) {
+		fileTable[fd].close();
+		fileTable[fd] = null;
+	    }
+	}
+
+	unloadSections();
+	coff.close();
+
+	// the children no longer have a parent
+	children.clear();
+
+	exitStatus = status;
+	exitedNormally = normal;
+	exited.V();
+
+	boolean intStatus = Machine.interrupt().disable();
+	boolean last = (--numRunning == 0);
+	Machine.interrupt().restore(intStatus);
+
+	if (last)
+	    Kernel.kernel.terminate();
+
+	KThread.finish();
+    }
 
     private static final int
         syscallHalt = 0,
@@ -357,7 +729,10 @@ public class UserProcess {
 	syscallRead = 6,
 	syscallWrite = 7,
 	syscallClose = 8,
-	syscallUnlink = 9;
+	syscallUnlink = 9,
+	syscallMmap = 10,
+	syscallConnect = 11,
+	syscallAccept = 12;
 
     /**
      * Handle a syscall exception. Called by <tt>handleException()</tt>. The
@@ -378,7 +753,14 @@ public class UserProcess {
      *								</tt></td></tr>
      * <tr><td>8</td><td><tt>int  close(int fd);</tt></td></tr>
      * <tr><td>9</td><td><tt>int  unlink(char *name);</tt></td></tr>
+     * <tr><td>10</td><td><tt>int  mmap(int fd, char *address);</tt></td></tr>
+     * <tr><td>11</td><td><tt>int  connect(int host, int port);</tt></td></tr>
+     * <tr><td>12</td><td><tt>int  accept(int port);</tt></td></tr>
      * </table>
+     *
+     * <p>
+     * The syscall is looked up in <tt>syscallTable</tt>, which counts the
+     * calls and the ticks they take.
      * 
      * @param	syscall	the syscall number.
      * @param	a0	the first syscall argument.
@@ -388,16 +770,12 @@ public class UserProcess {
      * @return	the value to be returned to the user.
      */
     public int handleSyscall(int syscall, int a0, int a1, int a2, int a3) {
-	switch (syscall) {
-	case syscallHalt:
-	    return handleHalt();
-
-
-	default:
+	if (syscall < 0 || syscall >= syscallTable.length) {
 	    Lib.debug(dbgProcess, "Unknown syscall " + syscall);
 	    Lib.assertNotReached("Unknown system call!");
 	}
-	return 0;
+
+	return syscallTable[syscall].call(this, a0, a1, a2, a3);
     }
 
     /**
@@ -406,6 +784,10 @@ public class UserProcess {
      * <i>cause</i> argument identifies which exception occurred; see the
      * <tt>Processor.exceptionZZZ</tt> constants.
      *
+     * <p>
+     * Any exception other than a syscall kills the process, as if it had
+     * exited abnormally.
+     *
      * @param	cause	the user exception that occurred.
      */
     public void handleException(int cause) {
@@ -426,10 +808,172 @@ public class UserProcess {
 	default:
 	    Lib.debug(dbgProcess, "Unexpected exception: " +
 		      Processor.exceptionNames[cause]);
-	    Lib.assertNotReached("Unexpected exception");
+	    exit(-1, false);
 	}
     }
 
+    /**
+     * Print the number of calls to each syscall that has been called, and how
+     * many ticks they took, most total ticks first. The histogram has a bucket
+     * for 0 ticks, and then one for each power of two: 1, 2-3, 4-7, and so on.
+     * Calls that never return, such as <tt>exit()</tt>, are counted but not
+     * timed. Called by <tt>UserKernel.terminate()</tt>, just before the
+     * machine prints its own statistics.
+     */
+    public static void printSyscallStats() {
+	ArrayList<Syscall> called = new ArrayList<Syscall>();
+	for (int i=0; i<syscallTable.length; i++) {
+	    if (syscallTable[i].numCalls > 0)
+		called.add(syscallTable[i]);
+	}
+
+	if (called.isEmpty())
+	    return;
+
+	Collections.sort(called, new Comparator<Syscall>() {
+		public int compare(Syscall a, Syscall b) {
+		    if (a.totalTicks != b.totalTicks)
+			return (a.totalTicks > b.totalTicks ? -1 : 1);
+		    return a.name.compareTo(b.name);
+		}
+	    });
+
+	System.out.println("Syscalls: " + called.size() + " called");
+	for (int i=0; i<called.size(); i++) {
+	    Syscall syscall = called.get(i);
+
+	    int numBuckets = syscall.histogram.length;
+	    while (numBuckets > 1 && syscall.histogram[numBuckets-1] == 0)
+		numBuckets--;
+
+	    System.out.print("  " + syscall.name
+			     + ": calls " + syscall.numCalls
+			     + ", ticks " + syscall.totalTicks
+			     + " (max " + syscall.maxTicks + ")"
+			     + ", histogram");
+	    for (int j=0; j<numBuckets; j++)
+		System.out.print(" " + syscall.histogram[j]);
+	    System.out.println();
+	}
+    }
+
+    /**
+     * An entry in <tt>syscallTable</tt>. Calls the method that handles one
+     * syscall, and counts the calls and the ticks each one takes.
+     */
+    private static abstract class Syscall {
+	Syscall(String name) {
+	    this.name = name;
+	}
+
+	/**
+	 * Handle the syscall for the specified process.
+	 */
+	abstract int handle(UserProcess process, int a0, int a1, int a2,
+			    int a3);
+
+	/**
+	 * Handle the syscall for the specified process, and record how long
+	 * it took.
+	 */
+	int call(UserProcess process, int a0, int a1, int a2, int a3) {
+	    numCalls++;
+
+	    long startTime = Machine.timer().getTime();
+	    int result = handle(process, a0, a1, a2, a3);
+	    long ticks = Machine.timer().getTime() - startTime;
+
+	    totalTicks += ticks;
+	    if (ticks > maxTicks)
+		maxTicks = ticks;
+
+	    // bucket 0 holds 0 ticks, bucket i holds [2^(i-1), 2^i)
+	    int bucket = 64 - Long.numberOfLeadingZeros(ticks);
+	    histogram[Math.min(bucket, histogram.length-1)]++;
+
+	    return result;
+	}
+
+	String name;
+	long numCalls = 0;
+	long totalTicks = 0;
+	long maxTicks = 0;
+	long[] histogram = new long[numHistogramBuckets];
+    }
+
+    private static final int numHistogramBuckets = 24;
+
+    /** The syscalls, indexed by syscall number. */
+    private static final Syscall[] syscallTable = new Syscall[13];
+
+    static {
+	syscallTable[syscallHalt] = new Syscall("halt") {
+		int handle(UserProcess p, int a0, int a1, int a2, int a3) {
+		    return p.handleHalt();
+		}
+	    };
+	syscallTable[syscallExit] = new Syscall("exit") {
+		int handle(UserProcess p, int a0, int a1, int a2, int a3) {
+		    return p.handleExit(a0);
+		}
+	    };
+	syscallTable[syscallExec] = new Syscall("exec") {
+		int handle(UserProcess p, int a0, int a1, int a2, int a3) {
+		    return p.handleExec(a0, a1, a2);
+		}
+	    };
+	syscallTable[syscallJoin] = new Syscall("join") {
+		int handle(UserProcess p, int a0, int a1, int a2, int a3) {
+		    return p.handleJoin(a0, a1);
+		}
+	    };
+	syscallTable[syscallCreate] = new Syscall("creat") {
+		int handle(UserProcess p, int a0, int a1, int a2, int a3) {
+		    return p.handleOpen(a0, true);
+		}
+	    };
+	syscallTable[syscallOpen] = new Syscall("open") {
+		int handle(UserProcess p, int a0, int a1, int a2, int a3) {
+		    return p.handleOpen(a0, false);
+		}
+	    };
+	syscallTable[syscallRead] = new Syscall("read") {
+		int handle(UserProcess p, int a0, int a1, int a2, int a3) {
+		    return p.handleRead(a0, a1, a2);
+		}
+	    };
+	syscallTable[syscallWrite] = new Syscall("write") {
+		int handle(UserProcess p, int a0, int a1, int a2, int a3) {
+		    return p.handleWrite(a0, a1, a2);
+		}
+	    };
+	syscallTable[syscallClose] = new Syscall("close") {
+		int handle(UserProcess p, int a0, int a1, int a2, int a3) {
+		    return p.handleClose(a0);
+		}
+	    };
+	syscallTable[syscallUnlink] = new Syscall("unlink") {
+		int handle(UserProcess p, int a0, int a1, int a2, int a3) {
+		    return p.handleUnlink(a0);
+		}
+	    };
+	syscallTable[syscallMmap] = new Syscall("mmap") {
+		int handle(UserProcess p, int a0, int a1, int a2, int a3) {
+		    return p.handleMmap(a0, a1);
+		}
+	    };
+	syscallTable[syscallConnect] = new Syscall("connect") {
+		int handle(UserProcess p, int a0, int a1, int a2, int a3) {
+		    return p.handleConnect(a0, a1);
+		}
+	    };
+	syscallTable[syscallAccept] = new Syscall("accept") {
+		int handle(UserProcess p, int a0, int a1, int a2, int a3) {
+		    return p.handleAccept(a0);
+		}
+	    };
+    }
+
     /** The program being run by this process. */
     protected Coff coff;
 
@@ -438,11 +982,34 @@ public class UserProcess {
     /** The number of contiguous pages occupied by the program. */
     protected int numPages;
 
+    /** The main memory spans found by <tt>mapVirtualMemory()</tt>. */
+    private int[] spanOffsets, spanLengths;
+
     /** The number of pages in the program's stack. */
     protected final int stackPages = 8;
     
     private int initialPC, initialSP;
     private int argc, argv;
+
+    /** The files this process has open, indexed by file descriptor. */
+    private OpenFile[] fileTable = new OpenFile[16];
+
+    /** This process's process ID. */
+    private int pid;
+    /** The children this process has not yet joined, by process ID. */
+    private HashMap<Integer, UserProcess> children =
+	new HashMap<Integer, UserProcess>();
+    /** Released when this process exits. */
+    private Semaphore exited = new Semaphore(0);
+    private int exitStatus;
+    private boolean exitedNormally;
+
+    private static int nextPid = 0;
+    /** The number of processes that have started and not yet exited. */
+    private static int numRunning = 0;
+
+    /** The longest file name or argument accepted from a user program. */
+    private static final int maxNameLength = 256;
 	
     private static final int pageSize = Processor.pageSize;
     private static final char dbgProcess = 'a';